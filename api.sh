@@ -7,6 +7,15 @@ shopping.update.batch() {
   done
 }
 
+shopping.update.items() {
+  items=""
+  for i in {1..40}
+  do
+    items="${items}{\"productId\": \"$2-${i}\", \"quantity\": ${i}},"
+  done
+  echo "[${items%,}]" | http POST localhost:$1/shoppingcart/$2/items -v
+}
+
 shopping.report() {
   http POST localhost:$1/shoppingcart/$2/checkout
 }
@@ -22,6 +31,15 @@ shopping.get.batch() {
   done
 }
 
+shopping.get.many() {
+  ids=""
+  for i in {1..40}
+  do
+    ids="${ids}\"$2-${i}\","
+  done
+  echo "[${ids%,}]" | http POST localhost:$1/shoppingcart/_batchGet
+}
+
 shopping.report() {
   http localhost:$1/shoppingcart/$2/report
 }
@@ -0,0 +1,44 @@
+-- Moves the journal and the snapshots of a database created with shopping-cart.sql to the
+-- partitioned tables of shopping-cart-partitioned.sql. Run it with psql from this
+-- directory, with the shopping cart service stopped:
+--
+--   psql -h localhost -U shopping_cart -d shopping_cart -f migrate-to-partitioned.sql
+--
+-- The ordering values are kept as they are, the read-side offsets refer to them. The
+-- previous tables are kept as journal_unpartitioned and snapshot_unpartitioned, drop them
+-- once the service runs fine on the new ones.
+
+\set ON_ERROR_STOP on
+
+BEGIN;
+
+ALTER TABLE journal RENAME TO journal_unpartitioned;
+ALTER TABLE journal_unpartitioned RENAME CONSTRAINT journal_pkey TO journal_unpartitioned_pkey;
+ALTER INDEX journal_ordering_idx RENAME TO journal_unpartitioned_ordering_idx;
+ALTER SEQUENCE journal_ordering_seq RENAME TO journal_unpartitioned_ordering_seq;
+
+ALTER TABLE snapshot RENAME TO snapshot_unpartitioned;
+ALTER TABLE snapshot_unpartitioned RENAME CONSTRAINT snapshot_pkey TO snapshot_unpartitioned_pkey;
+
+\ir shopping-cart-partitioned.sql
+
+-- Continue the ordering where the previous journal stopped, then create the partitions
+-- of all the existing events.
+SELECT setval('journal_ordering_seq', GREATEST(MAX(ordering), 1), MAX(ordering) IS NOT NULL)
+  FROM journal_unpartitioned;
+SELECT create_journal_partitions(2, 0);
+
+-- This also fills journal_sequence_numbers, through its trigger.
+INSERT INTO journal (ordering, persistence_id, sequence_number, deleted, tags, message)
+  SELECT ordering, persistence_id, sequence_number, deleted, tags, message
+  FROM journal_unpartitioned;
+
+INSERT INTO snapshot (persistence_id, sequence_number, created, snapshot)
+  SELECT persistence_id, sequence_number, created, snapshot
+  FROM snapshot_unpartitioned;
+
+COMMIT;
+
+ANALYZE journal;
+ANALYZE journal_sequence_numbers;
+ANALYZE snapshot;
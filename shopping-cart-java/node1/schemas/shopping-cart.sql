@@ -24,4 +24,9 @@ CREATE TABLE read_side_offsets (
   read_side_id VARCHAR(255), tag VARCHAR(255),
   sequence_offset bigint, time_uuid_offset char(36),
   PRIMARY KEY (read_side_id, tag)
-)
\ No newline at end of file
+);
+
+-- The carts whose journal JournalCompaction has compacted, created by the compaction.
+CREATE TABLE IF NOT EXISTS journal_compaction (
+  cart_id VARCHAR(255) PRIMARY KEY
+);
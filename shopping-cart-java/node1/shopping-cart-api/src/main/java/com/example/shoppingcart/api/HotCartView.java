@@ -0,0 +1,41 @@
+package com.example.shoppingcart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * One of the shopping carts receiving the most commands on a node.
+ */
+@Value
+@JsonDeserialize
+public final class HotCartView {
+    /**
+     * The ID of the shopping cart.
+     */
+    public final String id;
+
+    /**
+     * The estimated number of commands, decayed by half every window.
+     */
+    public final long count;
+
+    /**
+     * How much the count may overestimate the actual number of commands.
+     */
+    public final long error;
+
+    /**
+     * Whether the item updates of this cart are currently merged before they're sent.
+     */
+    public final boolean throttled;
+
+    @JsonCreator
+    public HotCartView(String id, long count, long error, boolean throttled) {
+        this.id = Preconditions.checkNotNull(id, "id");
+        this.count = count;
+        this.error = error;
+        this.throttled = throttled;
+    }
+}
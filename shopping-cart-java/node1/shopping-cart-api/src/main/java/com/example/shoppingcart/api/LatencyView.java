@@ -0,0 +1,54 @@
+package com.example.shoppingcart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * The latency distribution of one phase of a shopping cart command.
+ */
+@Value
+@JsonDeserialize
+public final class LatencyView {
+    /**
+     * The command, eg get, update-item or checkout.
+     */
+    public final String command;
+
+    /**
+     * The phase of the command that was timed, eg ask, persist or reply.
+     */
+    public final String phase;
+
+    /**
+     * The number of commands timed since the service started.
+     */
+    public final long count;
+
+    /**
+     * The number of commands per second over the last window.
+     */
+    public final double ratePerSecond;
+
+    /**
+     * Latency percentiles and maximum over the last window, in microseconds.
+     */
+    public final long p50Micros;
+    public final long p99Micros;
+    public final long p999Micros;
+    public final long maxMicros;
+
+    @JsonCreator
+    public LatencyView(String command, String phase, long count, double ratePerSecond,
+                       long p50Micros, long p99Micros, long p999Micros, long maxMicros) {
+        this.command = Preconditions.checkNotNull(command, "command");
+        this.phase = Preconditions.checkNotNull(phase, "phase");
+        this.count = count;
+        this.ratePerSecond = ratePerSecond;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+}
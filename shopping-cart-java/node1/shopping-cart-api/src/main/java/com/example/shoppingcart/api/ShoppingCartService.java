@@ -2,10 +2,13 @@ package com.example.shoppingcart.api;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
+import com.lightbend.lagom.javadsl.api.ServiceAcl;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.transport.Method;
+import org.pcollections.PSequence;
 
 import static com.lightbend.lagom.javadsl.api.Service.*;
 
@@ -14,6 +17,10 @@ import static com.lightbend.lagom.javadsl.api.Service.*;
  * <p>
  * This describes everything that Lagom needs to know about how to serve and
  * consume the ShoppingCartService.
+ * <p>
+ * Only the {@code /shoppingcart} calls are in the ACLs published to the service gateway.
+ * The {@code /diagnostics} calls report on the node serving them, they're reached on the
+ * service port of each node and aren't exposed through the gateway.
  */
 public interface ShoppingCartService extends Service {
 
@@ -25,6 +32,26 @@ public interface ShoppingCartService extends Service {
      */
     ServiceCall<NotUsed, ShoppingCart> get(String id);
 
+    /**
+     * Get many shopping carts at once.
+     * <p>
+     * The lookups are returned in the order of the requested ids, a cart that
+     * couldn't be read has an error instead of a cart.
+     * <p>
+     * Example: curl -H "Content-Type: application/json" -X POST -d '["123", "456"]' http://localhost:9000/shoppingcart/_batchGet
+     */
+    ServiceCall<PSequence<String>, PSequence<ShoppingCartLookup>> getBatch();
+
+    /**
+     * Follow a shopping cart over a WebSocket.
+     * <p>
+     * The current cart is sent first, then the cart again each time it changes. A slow
+     * client only gets the latest cart, and the stream completes once the cart is
+     * checked out.
+     * <p>
+     * Example: websocat ws://localhost:9000/shoppingcart/123/stream
+     */
+    ServiceCall<NotUsed, Source<ShoppingCart, ?>> stream(String id);
 
     /**
      * Get a shopping cart report (view model).
@@ -40,6 +67,24 @@ public interface ShoppingCartService extends Service {
      */
     ServiceCall<ShoppingCartItem, Done> updateItem(String id);
 
+    /**
+     * Update many items quantities in the shopping cart at once.
+     * <p>
+     * The items are applied in order, either all of them or none.
+     * <p>
+     * Example: curl -H "Content-Type: application/json" -X POST -d '[{"productId": 456, "quantity": 2}, {"productId": 789, "quantity": 1}]' http://localhost:9000/shoppingcart/123/items
+     */
+    ServiceCall<PSequence<ShoppingCartItem>, Done> updateItems(String id);
+
+    /**
+     * Stream item updates into the shopping cart over a WebSocket.
+     * <p>
+     * Consecutive updates of the same product may be coalesced, and updates are
+     * persisted in batches. The call completes once the client completes its stream
+     * and all the updates are persisted, or fails on the first batch rejected.
+     */
+    ServiceCall<Source<ShoppingCartItem, NotUsed>, Done> ingest(String id);
+
     /**
      * Checkout the shopping cart.
      * <p>
@@ -47,15 +92,44 @@ public interface ShoppingCartService extends Service {
      */
     ServiceCall<NotUsed, Done> checkout(String id);
 
+    /**
+     * Get the latency, rate and rejection metrics of the node serving the request.
+     * <p>
+     * Example: curl http://localhost:9003/diagnostics/shoppingcart/metrics
+     */
+    ServiceCall<NotUsed, ShoppingCartMetricsView> metrics();
+
+    /**
+     * Get the shopping carts receiving the most commands on the node serving the request.
+     * <p>
+     * Example: curl http://localhost:9003/diagnostics/shoppingcart/hot-carts
+     */
+    ServiceCall<NotUsed, PSequence<HotCartView>> hotCarts();
+
+    /**
+     * Get how far each read-side processor is behind the journal, per tag.
+     * <p>
+     * Example: curl http://localhost:9003/diagnostics/shoppingcart/read-side-lag
+     */
+    ServiceCall<NotUsed, PSequence<ReadSideLagView>> readSideLag();
+
     @Override
     default Descriptor descriptor() {
         return named("shopping-cart")
             .withCalls(
                 restCall(Method.GET, "/shoppingcart/:id", this::get),
                 restCall(Method.GET, "/shoppingcart/:id/report", this::getReport),
+                pathCall("/shoppingcart/:id/stream", this::stream),
+                // declared before updateItem, whose path also matches
+                restCall(Method.POST, "/shoppingcart/_batchGet", this::getBatch),
                 restCall(Method.POST, "/shoppingcart/:id", this::updateItem),
-                restCall(Method.POST, "/shoppingcart/:id/checkout", this::checkout)
+                restCall(Method.POST, "/shoppingcart/:id/items", this::updateItems),
+                pathCall("/shoppingcart/:id/ingest", this::ingest),
+                restCall(Method.POST, "/shoppingcart/:id/checkout", this::checkout),
+                restCall(Method.GET, "/diagnostics/shoppingcart/metrics", this::metrics),
+                restCall(Method.GET, "/diagnostics/shoppingcart/hot-carts", this::hotCarts),
+                restCall(Method.GET, "/diagnostics/shoppingcart/read-side-lag", this::readSideLag)
             )
-            .withAutoAcl(true);
+            .withServiceAcls(ServiceAcl.forPathRegex("/shoppingcart/.*"));
     }
 }
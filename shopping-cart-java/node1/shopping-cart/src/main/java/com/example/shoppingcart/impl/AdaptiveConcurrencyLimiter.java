@@ -0,0 +1,135 @@
+package com.example.shoppingcart.impl;
+
+import akka.pattern.AskTimeoutException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of calls in flight, adapting the cap to the latency of the calls.
+ * <p>
+ * Follows the gradient approach: a long term average of the latency is compared with
+ * each new sample. While samples stay within {@code tolerance} times the average the
+ * limit grows by a queue allowance of the square root of the limit, when they get
+ * slower the limit shrinks in proportion, down to half of it per sample. A call that
+ * timed out shrinks the limit by 10%. Changes are smoothed, and the limit doesn't grow
+ * while less than half of it is in use, since the latency then says nothing about what
+ * more calls would do.
+ * <p>
+ * Calls over the limit are rejected right away with a {@link LimitExceededException}.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Thrown when a call is rejected because the limit is reached.
+     */
+    static class LimitExceededException extends RuntimeException {
+        LimitExceededException(int limit) {
+            super("Concurrency limit of " + limit + " reached");
+        }
+    }
+
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile int limit;
+    private double estimatedLimit;
+    private double longRtt;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Run the call if the limit allows it, otherwise fail with a {@link LimitExceededException}
+     * without running it.
+     */
+    <T> CompletionStage<T> run(Supplier<CompletionStage<T>> call) {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new LimitExceededException(limit));
+                return failed;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        int started = current + 1;
+        long start = System.nanoTime();
+        CompletionStage<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return result.whenComplete((value, error) -> {
+            inFlight.decrementAndGet();
+            onSample(System.nanoTime() - start, started, isTimeout(error));
+        });
+    }
+
+    synchronized void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+        if (dropped) {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * 0.9);
+            limit = (int) estimatedLimit;
+            return;
+        }
+
+        if (longRtt == 0) {
+            longRtt = rttNanos;
+        } else {
+            longRtt = longRtt + (rttNanos - longRtt) / LONG_WINDOW;
+        }
+        // The average was pulled up by an overload that's now over, let it recover faster
+        if (longRtt / rttNanos > 2) {
+            longRtt = longRtt * 0.95;
+        }
+
+        if (inFlightAtStart < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / rttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    static boolean isTimeout(Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        return cause instanceof TimeoutException || cause instanceof AskTimeoutException;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+}
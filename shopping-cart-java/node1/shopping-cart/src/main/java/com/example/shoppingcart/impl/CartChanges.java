@@ -0,0 +1,40 @@
+package com.example.shoppingcart.impl;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Broadcasts the state of a cart across the cluster each time {@link ShoppingCartEntity}
+ * persists a change, on one Lagom PubSub topic per cart.
+ * <p>
+ * Delivery is at most once and a subscriber only sees the changes published after it
+ * subscribed, so subscribers should start from a read of the cart and rely on the state
+ * {@link ShoppingCartState#getVersion() version} to order what they receive.
+ */
+@Singleton
+public class CartChanges {
+
+    private final PubSubRegistry pubSub;
+
+    @Inject
+    public CartChanges(PubSubRegistry pubSub) {
+        this.pubSub = pubSub;
+    }
+
+    void publish(String cartId, ShoppingCartState state) {
+        pubSub.refFor(topic(cartId)).publish(state);
+    }
+
+    Source<ShoppingCartState, NotUsed> subscribe(String cartId) {
+        return pubSub.refFor(topic(cartId)).subscriber();
+    }
+
+    private static TopicId<ShoppingCartState> topic(String cartId) {
+        return TopicId.of(ShoppingCartState.class, cartId);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import com.google.common.base.Suppliers;
+import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * The cart contents projected by {@link ShoppingCartContentsProcessor}, read in plain
+ * JDBC on {@code shopping-cart.report.query-dispatcher}, the same way as
+ * {@link ReportQueries}.
+ */
+@Singleton
+public class CartContentsRepository {
+
+    private static final String FIND_CONTENTS =
+            "SELECT items, checkedOut, version, lastEventTime, fromLegacyTag, fromShardedTag FROM ShoppingCartContents WHERE id = ?";
+
+    private final Supplier<DataSource> dataSource;
+    private final Executor executor;
+
+    @Inject
+    public CartContentsRepository(ReadSide readSide, ActorSystem system, Config config) {
+        String jndiName = config.getString("db.default.jndiName");
+        this.dataSource = Suppliers.memoize(() -> ReportQueries.lookup(jndiName))::get;
+        this.executor = system.dispatchers().lookup("shopping-cart.report.query-dispatcher");
+        readSide.register(ShoppingCartContentsProcessor.class);
+    }
+
+    /**
+     * Find the projected contents of a cart.
+     */
+    CompletionStage<Optional<ShoppingCartContents>> find(String cartId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = dataSource.get().getConnection()) {
+                connection.setReadOnly(true);
+                connection.setAutoCommit(true);
+                try (PreparedStatement statement = connection.prepareStatement(FIND_CONTENTS)) {
+                    statement.setString(1, cartId);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        if (rs.next()) {
+                            Timestamp lastEventTime = rs.getTimestamp(4);
+                            return Optional.of(ShoppingCartContents.of(cartId, rs.getString(1), rs.getBoolean(2), rs.getLong(3),
+                                    lastEventTime == null ? null : lastEventTime.toInstant(), rs.getBoolean(5), rs.getBoolean(6)));
+                        } else {
+                            return Optional.empty();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
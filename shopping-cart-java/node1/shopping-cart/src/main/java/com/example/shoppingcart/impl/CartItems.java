@@ -0,0 +1,189 @@
+package com.example.shoppingcart.impl;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The items of a {@link ShoppingCartState}, an immutable map of product ids to quantities.
+ * <p>
+ * Items are kept in two parallel arrays sorted by product id, product ids are interned
+ * so that carts holding the same products share the same strings, and quantities are
+ * stored as plain ints. Updates copy the arrays, which is cheap for the handful of
+ * items a cart usually holds.
+ * <p>
+ * Compared to the {@code HashTreePMap} it replaces, a cart holds no tree nodes, map
+ * entries or boxed quantities, nor its own copy of the product ids, and an update
+ * allocates the holder and two arrays instead of a path of tree nodes.
+ * {@code CartItemsFootprint} in the test sources measures both.
+ * <p>
+ * It serializes as a JSON object of product ids to quantities, same as the
+ * {@code PMap} it replaces, so existing snapshots keep loading.
+ */
+public final class CartItems {
+
+    private static final Interner<String> PRODUCT_IDS = Interners.newWeakInterner();
+
+    public static final CartItems EMPTY = new CartItems(new String[0], new int[0]);
+
+    private final String[] productIds;
+    private final int[] quantities;
+
+    private CartItems(String[] productIds, int[] quantities) {
+        this.productIds = productIds;
+        this.quantities = quantities;
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    static CartItems fromMap(Map<String, Integer> items) {
+        CartItems result = EMPTY;
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            result = result.updated(item.getKey(), item.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Build the items from arrays already sorted by product id, as written by
+     * {@link ShoppingCartSerializer}. The arrays are owned by the result.
+     */
+    static CartItems ofSorted(String[] productIds, int[] quantities) {
+        Preconditions.checkArgument(productIds.length == quantities.length, "productIds and quantities differ in length");
+        for (int i = 0; i < productIds.length; i++) {
+            Preconditions.checkArgument(quantities[i] != 0, "quantity of an item must not be zero");
+            Preconditions.checkArgument(i == 0 || productIds[i - 1].compareTo(productIds[i]) < 0, "productIds must be sorted and unique");
+            productIds[i] = PRODUCT_IDS.intern(productIds[i]);
+        }
+        return productIds.length == 0 ? EMPTY : new CartItems(productIds, quantities);
+    }
+
+    @JsonValue
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new LinkedHashMap<>(productIds.length * 2);
+        forEach(map::put);
+        return map;
+    }
+
+    public int size() {
+        return productIds.length;
+    }
+
+    public boolean isEmpty() {
+        return productIds.length == 0;
+    }
+
+    public boolean containsKey(String productId) {
+        return indexOf(productId) >= 0;
+    }
+
+    /**
+     * The quantity of the given product, or zero if it's not in the cart.
+     */
+    public int quantity(String productId) {
+        int index = indexOf(productId);
+        return index >= 0 ? quantities[index] : 0;
+    }
+
+    /**
+     * The product ids in the cart, in ascending order.
+     */
+    public List<String> productIds() {
+        return Collections.unmodifiableList(Arrays.asList(productIds));
+    }
+
+    public String productIdAt(int index) {
+        return productIds[index];
+    }
+
+    public int quantityAt(int index) {
+        return quantities[index];
+    }
+
+    public void forEach(ObjIntConsumer<String> consumer) {
+        for (int i = 0; i < productIds.length; i++) {
+            consumer.accept(productIds[i], quantities[i]);
+        }
+    }
+
+    /**
+     * Returns a copy of these items with the quantity of the given product set, a quantity
+     * of zero removes the product.
+     */
+    public CartItems updated(String productId, int quantity) {
+        Preconditions.checkNotNull(productId, "productId");
+        int index = indexOf(productId);
+        if (index >= 0) {
+            if (quantity == 0) {
+                return removeAt(index);
+            } else if (quantities[index] == quantity) {
+                return this;
+            } else {
+                int[] newQuantities = quantities.clone();
+                newQuantities[index] = quantity;
+                return new CartItems(productIds, newQuantities);
+            }
+        } else if (quantity == 0) {
+            return this;
+        } else {
+            return insertAt(-(index + 1), PRODUCT_IDS.intern(productId), quantity);
+        }
+    }
+
+    private int indexOf(String productId) {
+        return Arrays.binarySearch(productIds, productId);
+    }
+
+    private CartItems insertAt(int index, String productId, int quantity) {
+        int size = productIds.length;
+        String[] newProductIds = new String[size + 1];
+        int[] newQuantities = new int[size + 1];
+        System.arraycopy(productIds, 0, newProductIds, 0, index);
+        System.arraycopy(quantities, 0, newQuantities, 0, index);
+        newProductIds[index] = productId;
+        newQuantities[index] = quantity;
+        System.arraycopy(productIds, index, newProductIds, index + 1, size - index);
+        System.arraycopy(quantities, index, newQuantities, index + 1, size - index);
+        return new CartItems(newProductIds, newQuantities);
+    }
+
+    private CartItems removeAt(int index) {
+        int size = productIds.length;
+        if (size == 1) {
+            return EMPTY;
+        }
+        String[] newProductIds = new String[size - 1];
+        int[] newQuantities = new int[size - 1];
+        System.arraycopy(productIds, 0, newProductIds, 0, index);
+        System.arraycopy(quantities, 0, newQuantities, 0, index);
+        System.arraycopy(productIds, index + 1, newProductIds, index, size - index - 1);
+        System.arraycopy(quantities, index + 1, newQuantities, index, size - index - 1);
+        return new CartItems(newProductIds, newQuantities);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CartItems)) return false;
+        CartItems that = (CartItems) o;
+        return Arrays.equals(productIds, that.productIds) && Arrays.equals(quantities, that.quantities);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(productIds) + Arrays.hashCode(quantities);
+    }
+
+    @Override
+    public String toString() {
+        return "CartItems" + toMap();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.shoppingcart.impl;
+
+import com.typesafe.config.Config;
+
+/**
+ * Reads and checks {@code shopping-cart.event-tag-shards}, see
+ * {@link ShoppingCartEvent#NUM_SHARDS}.
+ */
+final class EventTagShards {
+
+    /**
+     * The JDBC journal matches tags with {@code LIKE '%tag%'}, so with more than 10 shards
+     * the tag of shard 1 would also match the tag of shard 10.
+     */
+    static final int MAX_SHARDS = 10;
+
+    private static final String PATH = "shopping-cart.event-tag-shards";
+
+    private EventTagShards() {
+    }
+
+    /**
+     * The number of shards configured, failing if it's out of range.
+     */
+    static int numShards(Config config) {
+        int shards = config.getInt(PATH);
+        if (shards < 1 || shards > MAX_SHARDS) {
+            throw new IllegalStateException(PATH + " must be between 1 and " + MAX_SHARDS + ", got " + shards);
+        }
+        return shards;
+    }
+
+    /**
+     * Fail if the given config, as injected, sets another number of shards than the one
+     * the events are tagged with, which is read when the events are first loaded.
+     */
+    static void verify(Config config) {
+        int shards = numShards(config);
+        if (shards != ShoppingCartEvent.NUM_SHARDS) {
+            throw new IllegalStateException(PATH + " is " + shards + " in the injected config but the events are tagged with "
+                    + ShoppingCartEvent.NUM_SHARDS + " shards, set it in application.conf or as a system property");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.shoppingcart.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the most frequent keys with the Space-Saving algorithm, in memory bounded by
+ * {@code capacity} counters.
+ * <p>
+ * A key that's already tracked gets its counter incremented. Otherwise, while there's
+ * room, it gets a new counter, and when there isn't it takes over the smallest counter,
+ * inheriting its count as its error. Any key seen more often than the smallest counter
+ * is guaranteed to be tracked, and its count is overestimated by at most its error.
+ * <p>
+ * Counts and errors are halved every {@code window}, so that the keys that were hot a
+ * while ago fade out.
+ */
+class HeavyHitters {
+
+    /**
+     * A tracked key with its estimated count.
+     */
+    static final class Counter {
+        final String key;
+        long count;
+        long error;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * The count the key is known to have reached.
+         */
+        long guaranteed() {
+            return count - error;
+        }
+    }
+
+    private final int capacity;
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    private final Map<String, Counter> counters = new HashMap<>();
+    private long windowStart;
+
+    HeavyHitters(int capacity, Duration window) {
+        this(capacity, window, System::nanoTime);
+    }
+
+    HeavyHitters(int capacity, Duration window, LongSupplier clock) {
+        this.capacity = capacity;
+        this.windowNanos = window.toNanos();
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+    }
+
+    synchronized void offer(String key) {
+        decay();
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+        } else if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, 1, 0));
+        } else {
+            Counter min = null;
+            for (Counter candidate : counters.values()) {
+                if (min == null || candidate.count < min.count) {
+                    min = candidate;
+                }
+            }
+            counters.remove(min.key);
+            counters.put(key, new Counter(key, min.count + 1, min.count));
+        }
+    }
+
+    /**
+     * The count the key is known to have reached in the current windows, zero if it's not tracked.
+     */
+    synchronized long guaranteedCount(String key) {
+        decay();
+        Counter counter = counters.get(key);
+        return counter == null ? 0 : counter.guaranteed();
+    }
+
+    /**
+     * A copy of the tracked keys, with the highest counts first.
+     */
+    synchronized List<Counter> top(int n) {
+        decay();
+        List<Counter> top = new ArrayList<>(counters.size());
+        for (Counter counter : counters.values()) {
+            top.add(new Counter(counter.key, counter.count, counter.error));
+        }
+        top.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+        return top.size() > n ? top.subList(0, n) : top;
+    }
+
+    private void decay() {
+        long now = clock.getAsLong();
+        while (now - windowStart >= windowNanos) {
+            windowStart += windowNanos;
+            counters.values().removeIf(counter -> {
+                counter.count /= 2;
+                counter.error /= 2;
+                return counter.count == 0;
+            });
+            if (counters.isEmpty()) {
+                windowStart = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.shoppingcart.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the gaps in the journal orderings, to tell up to which ordering the journal can
+ * be read without missing events.
+ * <p>
+ * Orderings come from a sequence and are taken when the events are inserted, so a
+ * transaction that commits after a later one leaves a gap for a while, and one that
+ * rolls back leaves a gap for good. Gaps are kept as ranges of missing orderings, and
+ * only these ranges need to be queried again to find out whether they've been filled.
+ * A gap that isn't filled within {@code giveUpAfter} is given up on: its events, if any,
+ * are read by the queries that haven't gone past them yet and missed by the others.
+ * <p>
+ * The counts are numbers of orderings, not of ranges.
+ */
+class JournalGapTracker {
+
+    static final class Gap {
+        final long from;
+        final long to;
+        final long sinceNanos;
+
+        Gap(long from, long to, long sinceNanos) {
+            this.from = from;
+            this.to = to;
+            this.sinceNanos = sinceNanos;
+        }
+
+        long size() {
+            return to - from + 1;
+        }
+    }
+
+    private final long giveUpAfterNanos;
+    private final LongSupplier clock;
+
+    private final TreeMap<Long, Gap> gaps = new TreeMap<>();
+    private long maxSeen;
+    private long seen;
+    private long resolved;
+    private long abandoned;
+
+    /**
+     * @param start the ordering up to which the journal is considered complete.
+     */
+    JournalGapTracker(long start, Duration giveUpAfter, LongSupplier clock) {
+        this.maxSeen = start;
+        this.giveUpAfterNanos = giveUpAfter.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * Record an ordering found in the journal, either past the highest one seen so far or
+     * in one of the gaps.
+     */
+    synchronized void found(long ordering) {
+        if (ordering > maxSeen) {
+            if (ordering > maxSeen + 1) {
+                Gap gap = new Gap(maxSeen + 1, ordering - 1, clock.getAsLong());
+                gaps.put(gap.from, gap);
+                seen += gap.size();
+            }
+            maxSeen = ordering;
+            return;
+        }
+        Map.Entry<Long, Gap> entry = gaps.floorEntry(ordering);
+        if (entry != null && entry.getValue().to >= ordering) {
+            Gap gap = gaps.remove(entry.getKey());
+            if (gap.from < ordering) {
+                gaps.put(gap.from, new Gap(gap.from, ordering - 1, gap.sinceNanos));
+            }
+            if (gap.to > ordering) {
+                gaps.put(ordering + 1, new Gap(ordering + 1, gap.to, gap.sinceNanos));
+            }
+            resolved++;
+        }
+    }
+
+    /**
+     * Give up on the gaps that have been open for longer than {@code giveUpAfter}.
+     */
+    synchronized void abandonExpired() {
+        long now = clock.getAsLong();
+        Iterator<Gap> iterator = gaps.values().iterator();
+        while (iterator.hasNext()) {
+            Gap gap = iterator.next();
+            if (now - gap.sinceNanos >= giveUpAfterNanos) {
+                abandoned += gap.size();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The highest ordering such that no ordering below it is missing.
+     */
+    synchronized long safeMax() {
+        return gaps.isEmpty() ? maxSeen : gaps.firstKey() - 1;
+    }
+
+    synchronized long maxSeen() {
+        return maxSeen;
+    }
+
+    synchronized List<Gap> gaps() {
+        return new ArrayList<>(gaps.values());
+    }
+
+    synchronized long pending() {
+        long pending = 0;
+        for (Gap gap : gaps.values()) {
+            pending += gap.size();
+        }
+        return pending;
+    }
+
+    synchronized long seen() {
+        return seen;
+    }
+
+    synchronized long resolved() {
+        return resolved;
+    }
+
+    synchronized long abandoned() {
+        return abandoned;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.shoppingcart.impl;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Listens to the notifications sent by the journal insert trigger of
+ * {@code schemas/journal-notify.sql}, and reports the tags of the inserted events to the
+ * {@link JournalGapMonitor}.
+ * <p>
+ * It holds a connection of its own, outside of the connection pool, since a listening
+ * connection must stay open. The connection is opened again after a failure, and the
+ * monitor is told that inserts may have been missed. When the database doesn't support
+ * notifications the listener stops, and the monitor falls back to polling.
+ */
+class JournalNotificationListener implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalNotificationListener.class);
+
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String channel;
+    private final Duration reconnectDelay;
+    private final JournalGapMonitor monitor;
+
+    private volatile boolean running = true;
+
+    JournalNotificationListener(String url, String username, String password, String channel,
+                                Duration reconnectDelay, JournalGapMonitor monitor) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.channel = channel;
+        this.reconnectDelay = reconnectDelay;
+        this.monitor = monitor;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "journal-notification-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                if (!connection.isWrapperFor(PGConnection.class)) {
+                    log.info("The journal database doesn't support notifications, the read-side polls the journal");
+                    return;
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                monitor.missedInserts();
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            for (String tag : notification.getParameter().split(",")) {
+                                monitor.inserted(tag);
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Lost the journal notifications connection, reconnecting in {}", reconnectDelay, e);
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.shoppingcart.impl;
+
+import com.typesafe.config.Config;
+
+/**
+ * The quoted names of the journal table and of its columns, as configured for the JDBC
+ * read journal in {@code jdbc-read-journal.tables.journal}.
+ */
+final class JournalTable {
+
+    final String table;
+    final String ordering;
+    final String deleted;
+    final String persistenceId;
+    final String sequenceNumber;
+    final String tags;
+    final String message;
+
+    private JournalTable(Config journal) {
+        Config columns = journal.getConfig("columnNames");
+        String schema = journal.hasPath("schemaName") ? journal.getString("schemaName") : "";
+        this.table = (schema.isEmpty() ? "" : quote(schema) + ".") + quote(journal.getString("tableName"));
+        this.ordering = quote(columns.getString("ordering"));
+        this.deleted = quote(columns.getString("deleted"));
+        this.persistenceId = quote(columns.getString("persistenceId"));
+        this.sequenceNumber = quote(columns.getString("sequenceNumber"));
+        this.tags = quote(columns.getString("tags"));
+        this.message = quote(columns.getString("message"));
+    }
+
+    /**
+     * The journal table of the given read journal configuration.
+     */
+    static JournalTable of(Config readJournalConfig) {
+        return new JournalTable(readJournalConfig.getConfig("tables.journal"));
+    }
+
+    private static String quote(String name) {
+        return "\"" + name + "\"";
+    }
+}
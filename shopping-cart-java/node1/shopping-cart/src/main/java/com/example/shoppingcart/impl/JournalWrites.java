@@ -0,0 +1,63 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The writes of the {@link MeteredJdbcAsyncWriteJournal} of an actor system, an Akka
+ * extension so that the journal, which Akka creates, and {@link JournalWriteMetrics},
+ * which Guice creates, share them.
+ * <p>
+ * A write is one call of the journal by one entity, of the events of one persist. The
+ * latency is the time from the call to the commit, queueing for a writer included. The
+ * events in flight are the ones queued or being inserted, the writers batch them into
+ * commits of up to {@code jdbc-journal.batchSize} rows.
+ */
+final class JournalWrites implements Extension {
+
+    static final AbstractExtensionId<JournalWrites> ID = new AbstractExtensionId<JournalWrites>() {
+        @Override
+        public JournalWrites createExtension(ExtendedActorSystem system) {
+            return new JournalWrites(new LatencyRecorder("journal", "write",
+                    system.settings().config().getDuration("shopping-cart.metrics.window")));
+        }
+    };
+
+    final LatencyRecorder latency;
+    final LongAdder writes = new LongAdder();
+    final LongAdder events = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder eventsInFlight = new LongAdder();
+
+    private JournalWrites(LatencyRecorder latency) {
+        this.latency = latency;
+    }
+
+    static JournalWrites get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    /**
+     * Record the start of a write of the given number of events, returns its start time.
+     */
+    long started(int eventCount) {
+        eventsInFlight.add(eventCount);
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a write started with {@link #started(int)}, of which the given
+     * atomic writes and their events failed. The other events were written.
+     */
+    void completed(int eventCount, long startNanos, int failedWrites, int failedEvents) {
+        latency.record(System.nanoTime() - startNanos);
+        eventsInFlight.add(-eventCount);
+        writes.increment();
+        failures.add(failedWrites);
+        events.add(eventCount - failedEvents);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.LatencyView;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency of one phase of a command.
+ * <p>
+ * Values are recorded in an HdrHistogram {@link Recorder}, which never blocks the
+ * recording threads. Percentiles and rate are reported over the last completed
+ * window, so they reflect the current behaviour rather than the whole uptime.
+ */
+final class LatencyRecorder {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final String command;
+    private final String phase;
+    private final long windowNanos;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder count = new LongAdder();
+
+    private Histogram lastWindow = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private double lastWindowRate = 0;
+    private long windowStart = System.nanoTime();
+
+    LatencyRecorder(String command, String phase, Duration window) {
+        this.command = command;
+        this.phase = phase;
+        this.windowNanos = window.toNanos();
+    }
+
+    static String name(String command, String phase) {
+        return command + "." + phase;
+    }
+
+    String name() {
+        return name(command, phase);
+    }
+
+    void record(long nanos) {
+        recorder.recordValue(Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), HIGHEST_TRACKABLE_MICROS));
+        count.increment();
+    }
+
+    synchronized LatencyView snapshot() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= windowNanos) {
+            lastWindow = recorder.getIntervalHistogram(lastWindow);
+            lastWindowRate = lastWindow.getTotalCount() / (elapsed / 1e9);
+            windowStart = now;
+        }
+        return new LatencyView(command, phase, count.sum(), lastWindowRate,
+            lastWindow.getValueAtPercentile(50), lastWindow.getValueAtPercentile(99),
+            lastWindow.getValueAtPercentile(99.9), lastWindow.getMaxValue());
+    }
+}
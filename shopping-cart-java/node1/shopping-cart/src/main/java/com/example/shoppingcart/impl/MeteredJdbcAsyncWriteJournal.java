@@ -0,0 +1,64 @@
+package com.example.shoppingcart.impl;
+
+import akka.dispatch.ExecutionContexts;
+import akka.dispatch.OnComplete;
+import akka.persistence.AtomicWrite;
+import akka.persistence.jdbc.journal.JdbcAsyncWriteJournal;
+import com.typesafe.config.Config;
+import scala.collection.Iterator;
+import scala.collection.immutable.Seq;
+import scala.concurrent.Future;
+import scala.runtime.BoxedUnit;
+import scala.util.Try;
+
+/**
+ * The JDBC journal, recording its writes in {@link JournalWrites}. Set as the
+ * {@code jdbc-journal.class}.
+ * <p>
+ * The journal fails the whole call when the batch can't be committed, and rejects an
+ * atomic write on its own, with a {@code Failure} in the results, when its events can't
+ * be serialized. Either way the events of the failed atomic writes aren't written.
+ */
+public class MeteredJdbcAsyncWriteJournal extends JdbcAsyncWriteJournal {
+
+    private final JournalWrites writes;
+
+    public MeteredJdbcAsyncWriteJournal(Config config) {
+        super(config);
+        this.writes = JournalWrites.get(context().system());
+    }
+
+    @Override
+    public Future<Seq<Try<BoxedUnit>>> asyncWriteMessages(Seq<AtomicWrite> messages) {
+        int[] sizes = new int[messages.size()];
+        int eventCount = 0;
+        int i = 0;
+        for (Iterator<AtomicWrite> it = messages.iterator(); it.hasNext(); i++) {
+            sizes[i] = it.next().size();
+            eventCount += sizes[i];
+        }
+        int events = eventCount;
+        long start = writes.started(events);
+        Future<Seq<Try<BoxedUnit>>> result = super.asyncWriteMessages(messages);
+        result.onComplete(new OnComplete<Seq<Try<BoxedUnit>>>() {
+            @Override
+            public void onComplete(Throwable failure, Seq<Try<BoxedUnit>> results) {
+                if (failure != null) {
+                    writes.completed(events, start, sizes.length, events);
+                    return;
+                }
+                int failedWrites = 0;
+                int failedEvents = 0;
+                int write = 0;
+                for (Iterator<Try<BoxedUnit>> it = results.iterator(); it.hasNext(); write++) {
+                    if (it.next().isFailure()) {
+                        failedWrites++;
+                        failedEvents += sizes[write];
+                    }
+                }
+                writes.completed(events, start, failedWrites, failedEvents);
+            }
+        }, ExecutionContexts.sameThreadExecutionContext());
+        return result;
+    }
+}
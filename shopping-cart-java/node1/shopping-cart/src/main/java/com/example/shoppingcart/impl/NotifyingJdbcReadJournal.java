@@ -0,0 +1,166 @@
+package com.example.shoppingcart.impl;
+
+import akka.NotUsed;
+import akka.actor.ExtendedActorSystem;
+import akka.japi.Pair;
+import akka.persistence.PersistentRepr;
+import akka.persistence.jdbc.query.scaladsl.JdbcReadJournal;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.Sequence;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The JDBC read journal, with tag queries that are woken up by the journal inserts
+ * instead of polling the journal every {@code refresh-interval}.
+ * <p>
+ * The live tag query is a loop of current tag queries. After each one, it waits for an
+ * event with its tag to be readable (see {@link JournalWakeups}), then for the
+ * {@code coalesce} window so that a burst of inserts is read by one query, or at most
+ * {@code fallback-interval} in case a wakeup was lost.
+ * <p>
+ * Events are read up to the highest ordering without gaps, as tracked by the
+ * {@link JournalGapMonitor}, in pages of {@code max-buffer-size}, skipping the events
+ * marked deleted, from the journal table configured in {@code tables.journal}. The
+ * current tag query reads the same way, so neither uses the journal sequence actor of
+ * the JDBC read journal. The other queries are the ones of the JDBC read journal.
+ */
+class NotifyingJdbcReadJournal extends JdbcReadJournal {
+
+    private final String findEventsQuery;
+
+    private final ExtendedActorSystem system;
+    private final Serialization serialization;
+    private final Supplier<DataSource> dataSource;
+    private final Executor executor;
+    private final JournalGapMonitor gaps;
+    private final JournalWakeups wakeups;
+    private final int pageSize;
+    private final FiniteDuration coalesce;
+    private final FiniteDuration fallbackInterval;
+
+    NotifyingJdbcReadJournal(Config config, String configPath, ExtendedActorSystem system, JournalTable journal,
+                             Supplier<DataSource> dataSource, JournalGapMonitor gaps, JournalWakeups wakeups,
+                             Duration coalesce, Duration fallbackInterval) {
+        super(config, configPath, system);
+        this.findEventsQuery = "SELECT " + journal.ordering + ", " + journal.persistenceId + ", " + journal.sequenceNumber + ", " + journal.message
+                + " FROM " + journal.table
+                + " WHERE " + journal.tags + " LIKE ? AND " + journal.ordering + " > ? AND " + journal.ordering + " <= ?"
+                + " AND " + journal.deleted + " = false"
+                + " ORDER BY " + journal.ordering + " LIMIT ?";
+        this.system = system;
+        this.serialization = SerializationExtension.get(system);
+        this.dataSource = dataSource;
+        this.executor = system.dispatchers().lookup("shopping-cart.journal-query-dispatcher");
+        this.gaps = gaps;
+        this.wakeups = wakeups;
+        this.pageSize = config.getInt("max-buffer-size");
+        this.coalesce = toScala(coalesce);
+        this.fallbackInterval = toScala(fallbackInterval);
+    }
+
+    JournalGapMonitor gaps() {
+        return gaps;
+    }
+
+    @Override
+    public akka.stream.scaladsl.Source<EventEnvelope, NotUsed> currentEventsByTag(String tag, Offset offset) {
+        return currentEvents(tag, new AtomicLong(toOrdering(offset))).asScala();
+    }
+
+    @Override
+    public akka.stream.scaladsl.Source<EventEnvelope, NotUsed> eventsByTag(String tag, Offset offset) {
+        AtomicLong lastOrdering = new AtomicLong(toOrdering(offset));
+        // each element is the generation of the tag right before a current query
+        Source<Long, NotUsed> queries = Source.<Optional<Long>, Long>unfoldAsync(Optional.empty(), seen -> {
+            CompletionStage<Long> ready = seen.isPresent()
+                    ? awaitInsert(tag, seen.get())
+                    : CompletableFuture.completedFuture(wakeups.generation(tag));
+            return ready.thenApply(generation -> Optional.of(Pair.create(Optional.of(generation), generation)));
+        });
+        return queries
+                .flatMapConcat(generation -> currentEvents(tag, lastOrdering))
+                .asScala();
+    }
+
+    /**
+     * The events of the tag past {@code lastOrdering} that can be read now, page by page.
+     */
+    private Source<EventEnvelope, NotUsed> currentEvents(String tag, AtomicLong lastOrdering) {
+        long until = gaps.safeMax();
+        return Source.<Long, List<EventEnvelope>>unfoldAsync(lastOrdering.get(), from -> {
+            if (from >= until) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            return CompletableFuture.supplyAsync(() -> findEvents(tag, from, until), executor).thenApply(page -> {
+                // a partial page means there's nothing more up to until
+                long next = page.size() < pageSize ? until : ((Sequence) page.get(page.size() - 1).offset()).value();
+                lastOrdering.set(next);
+                return page.isEmpty() ? Optional.<Pair<Long, List<EventEnvelope>>>empty() : Optional.of(Pair.create(next, page));
+            });
+        }).mapConcat(page -> page);
+    }
+
+    private List<EventEnvelope> findEvents(String tag, long from, long until) {
+        List<EventEnvelope> page = new ArrayList<>(pageSize);
+        try (Connection connection = dataSource.get().getConnection()) {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(findEventsQuery)) {
+                statement.setString(1, "%" + tag + "%");
+                statement.setLong(2, from);
+                statement.setLong(3, until);
+                statement.setInt(4, pageSize);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        Object event = serialization.deserialize(rs.getBytes(4), PersistentRepr.class).get().payload();
+                        page.add(new EventEnvelope(Offset.sequence(rs.getLong(1)), rs.getString(2), rs.getLong(3), event));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        return page;
+    }
+
+    private CompletionStage<Long> awaitInsert(String tag, long seen) {
+        CompletionStage<Long> inserted = wakeups.next(tag, seen).thenCompose(generation -> after(coalesce));
+        return inserted.applyToEither(after(fallbackInterval), ignored -> wakeups.generation(tag));
+    }
+
+    private CompletionStage<Long> after(FiniteDuration delay) {
+        CompletableFuture<Long> timer = new CompletableFuture<>();
+        system.scheduler().scheduleOnce(delay, () -> timer.complete(0L), system.dispatcher());
+        return timer;
+    }
+
+    private static long toOrdering(Offset offset) {
+        return offset instanceof Sequence ? ((Sequence) offset).value() : 0;
+    }
+
+    private static FiniteDuration toScala(Duration duration) {
+        return FiniteDuration.create(duration.toNanos(), TimeUnit.NANOSECONDS);
+    }
+}
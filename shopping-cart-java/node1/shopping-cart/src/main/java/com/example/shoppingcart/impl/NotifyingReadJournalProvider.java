@@ -0,0 +1,75 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.query.ReadJournalProvider;
+import com.google.common.base.Suppliers;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.function.Supplier;
+
+/**
+ * Provides the {@link NotifyingJdbcReadJournal} in place of the JDBC read journal, set as
+ * the {@code jdbc-read-journal.class}. Akka creates it once per actor system.
+ * <p>
+ * It starts the {@link JournalGapMonitor} of the tag queries and, when
+ * {@code shopping-cart.journal-notify.enabled} is on, a {@link JournalNotificationListener}
+ * on the default database. Otherwise the monitor polls the journal.
+ * <p>
+ * The tag queries don't use the journal sequence actor of the JDBC read journal, so when
+ * the notifications are on, its {@code query-delay} is raised to
+ * {@code shopping-cart.journal-notify.sequence-query-delay} to leave it mostly idle.
+ */
+public class NotifyingReadJournalProvider implements ReadJournalProvider {
+
+    private final NotifyingJdbcReadJournal scaladslReadJournal;
+    private final akka.persistence.jdbc.query.javadsl.JdbcReadJournal javadslReadJournal;
+
+    public NotifyingReadJournalProvider(ExtendedActorSystem system, Config config, String configPath) {
+        Config settings = system.settings().config();
+        Config notify = settings.getConfig("shopping-cart.journal-notify");
+        Config gapSettings = settings.getConfig("shopping-cart.journal-gaps");
+        String jndiName = settings.getString("db.default.jndiName");
+        // The data source is bound by the Lagom JDBC persistence module at startup
+        Supplier<DataSource> dataSource = Suppliers.memoize(() -> ReportQueries.lookup(jndiName))::get;
+
+        JournalTable journal = JournalTable.of(config);
+        JournalWakeups wakeups = new JournalWakeups();
+        JournalGapMonitor gaps = new JournalGapMonitor(journal, dataSource, gapSettings.getInt("batch-size"),
+                gapSettings.getDuration("give-up-after"), gapSettings.getDuration("poll-interval"), wakeups);
+        gaps.start();
+        system.registerOnTermination(gaps::stop);
+
+        Config readJournalConfig = notify.getBoolean("enabled")
+                ? ConfigFactory.parseMap(Collections.singletonMap("journal-sequence-retrieval.query-delay",
+                        notify.getString("sequence-query-delay"))).withFallback(config)
+                : config;
+        this.scaladslReadJournal = new NotifyingJdbcReadJournal(readJournalConfig, configPath, system, journal, dataSource, gaps, wakeups,
+                notify.getDuration("coalesce"), notify.getDuration("fallback-interval"));
+        this.javadslReadJournal = new akka.persistence.jdbc.query.javadsl.JdbcReadJournal(scaladslReadJournal);
+
+        if (notify.getBoolean("enabled")) {
+            JournalNotificationListener listener = new JournalNotificationListener(
+                    settings.getString("db.default.url"),
+                    settings.getString("db.default.username"),
+                    settings.getString("db.default.password"),
+                    notify.getString("channel"),
+                    notify.getDuration("reconnect-delay"),
+                    gaps);
+            listener.start();
+            system.registerOnTermination(listener::stop);
+        }
+    }
+
+    @Override
+    public akka.persistence.query.scaladsl.ReadJournal scaladslReadJournal() {
+        return scaladslReadJournal;
+    }
+
+    @Override
+    public akka.persistence.query.javadsl.ReadJournal javadslReadJournal() {
+        return javadslReadJournal;
+    }
+}
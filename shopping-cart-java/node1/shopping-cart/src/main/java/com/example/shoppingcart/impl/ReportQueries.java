@@ -0,0 +1,91 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import com.example.shoppingcart.api.ShoppingCartReportView;
+import com.google.common.base.Suppliers;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Read-only queries of the {@link ShoppingCartReport} table, in plain JDBC.
+ * <p>
+ * A report lookup is a single row primary key read, so this skips the Hibernate
+ * session, the transaction and the dirty checking of {@link ReportRepository#findById}
+ * and maps the row straight to a {@link ShoppingCartReportView}. Connections come from
+ * the pool of the default data source and are used in read-only auto-commit mode; the
+ * PostgreSQL driver caches the prepared statement on each pooled connection once it's
+ * been used a few times ({@code prepareThreshold}).
+ * <p>
+ * Queries run on their own bounded dispatcher, {@code shopping-cart.report.query-dispatcher},
+ * so a slow database doesn't starve the threads of the read-side and the JPA session.
+ */
+@Singleton
+public class ReportQueries {
+
+    private static final String FIND_REPORT =
+            "SELECT creationDate, checkoutDate FROM ShoppingCartReport WHERE id = ?";
+
+    private final Supplier<DataSource> dataSource;
+    private final Executor executor;
+
+    @Inject
+    public ReportQueries(ActorSystem system, Config config) {
+        String jndiName = config.getString("db.default.jndiName");
+        // The data source is bound by the Lagom JDBC persistence module at startup
+        this.dataSource = Suppliers.memoize(() -> lookup(jndiName))::get;
+        this.executor = system.dispatchers().lookup("shopping-cart.report.query-dispatcher");
+    }
+
+    /**
+     * Find the report view of a cart.
+     */
+    CompletionStage<Optional<ShoppingCartReportView>> findView(String cartId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = dataSource.get().getConnection()) {
+                connection.setReadOnly(true);
+                connection.setAutoCommit(true);
+                try (PreparedStatement statement = connection.prepareStatement(FIND_REPORT)) {
+                    statement.setString(1, cartId);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        if (rs.next()) {
+                            return Optional.of(new ShoppingCartReportView(cartId, toInstant(rs.getTimestamp(1)), toInstant(rs.getTimestamp(2))));
+                        } else {
+                            return Optional.empty();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+    static DataSource lookup(String jndiName) {
+        try {
+            return (DataSource) new InitialContext().lookup(jndiName);
+        } catch (NamingException e) {
+            throw new IllegalStateException("Can't find data source [" + jndiName + "]", e);
+        }
+    }
+}
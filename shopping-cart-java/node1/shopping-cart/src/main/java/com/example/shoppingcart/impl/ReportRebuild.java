@@ -0,0 +1,333 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import akka.persistence.PersistentRepr;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.google.common.util.concurrent.RateLimiter;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Rebuilds the {@link ShoppingCartReport} table straight from the journal, much faster
+ * than replaying the events through {@link ShoppingCartReportProcessor} one transaction
+ * at a time.
+ * <p>
+ * The journal is read up to the high-water mark, split into ordering ranges that are
+ * read and decoded in parallel on a fork-join pool. Each range is reduced to the
+ * creation and checkout times of its carts, the ranges are merged, and the reports are
+ * copied into a shadow table. In a single transaction, the shadow table then replaces
+ * the report table and the offsets of the report processor are set to the high-water
+ * mark, so that the processor resumes from there. The previous table is kept as
+ * {@code ShoppingCartReport_old}.
+ * <p>
+ * The high-water mark is the highest journal ordering once the orderings below it have
+ * all been written or given up on, the way {@link JournalGapMonitor} tracks them with
+ * the {@code shopping-cart.journal-gaps} settings, so that no event still being written
+ * is missed. {@link JournalCompaction} keeps the first event of every cart, so the
+ * creation dates are all in the journal.
+ * <p>
+ * The report processor must not run meanwhile, since it would keep writing to the
+ * previous table and keep its own offsets in memory. Run the service with
+ * {@code lagom.persistence.read-side.run-on-role} set to a role no node has, rebuild,
+ * then restart the service without it. The journal keeps being written to. Reads
+ * and writes are limited to {@code rows-per-second}, so that the rebuild doesn't starve
+ * the database.
+ * <p>
+ * It needs PostgreSQL, and the reports of all the carts fit in memory. Run with
+ * {@code sbt "shopping-cart/runMain com.example.shoppingcart.impl.ReportRebuild"}, the
+ * settings are in {@code shopping-cart.report.rebuild}.
+ */
+public class ReportRebuild {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportRebuild.class);
+
+    private static final int COPY_CHUNK = 10000;
+
+    /**
+     * What the events of a cart say about its report.
+     */
+    static final class CartTimes {
+        long createdOrdering = Long.MAX_VALUE;
+        Instant creationDate;
+        Instant checkoutDate;
+
+        void created(long ordering, Instant eventTime) {
+            if (ordering < createdOrdering) {
+                createdOrdering = ordering;
+                creationDate = eventTime;
+            }
+        }
+
+        CartTimes merge(CartTimes other) {
+            if (other.creationDate != null) {
+                created(other.createdOrdering, other.creationDate);
+            }
+            if (other.checkoutDate != null) {
+                checkoutDate = other.checkoutDate;
+            }
+            return this;
+        }
+    }
+
+    private final String findRangeQuery;
+    private final String findOrderingsQuery;
+    private final String findEventsQuery;
+    private final Config settings;
+    private final Config gapSettings;
+    private final Serialization serialization;
+    private final RateLimiter rateLimiter;
+    private final String url;
+    private final String username;
+    private final String password;
+
+    private ReportRebuild(Config config, Serialization serialization) {
+        JournalTable journal = JournalTable.of(config.getConfig("jdbc-read-journal"));
+        this.findRangeQuery = "SELECT MIN(" + journal.ordering + "), MAX(" + journal.ordering + ") FROM " + journal.table;
+        this.findOrderingsQuery = "SELECT " + journal.ordering + " FROM " + journal.table
+                + " WHERE " + journal.ordering + " > ? AND " + journal.ordering + " <= ? ORDER BY " + journal.ordering;
+        this.findEventsQuery = "SELECT " + journal.ordering + ", " + journal.message + " FROM " + journal.table
+                + " WHERE " + journal.ordering + " > ? AND " + journal.ordering + " <= ? AND " + journal.deleted + " = false"
+                + " ORDER BY " + journal.ordering;
+        this.settings = config.getConfig("shopping-cart.report.rebuild");
+        this.gapSettings = config.getConfig("shopping-cart.journal-gaps");
+        this.serialization = serialization;
+        this.rateLimiter = RateLimiter.create(settings.getDouble("rows-per-second"));
+        this.url = config.getString("db.default.url");
+        this.username = config.getString("db.default.username");
+        this.password = config.getString("db.default.password");
+    }
+
+    public static void main(String[] args) throws Exception {
+        // a local actor system, only to decode the events
+        Config config = ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load());
+        ActorSystem system = ActorSystem.create("report-rebuild", config);
+        try {
+            new ReportRebuild(config, SerializationExtension.get(system)).run();
+        } finally {
+            system.terminate();
+        }
+    }
+
+    private void run() throws SQLException, IOException, InterruptedException {
+        long[] range = findRange();
+        long highWaterMark = findHighWaterMark(range[1]);
+        log.info("Rebuilding the reports up to ordering {}", highWaterMark);
+
+        Map<String, CartTimes> carts = readJournal(range[0] - 1, highWaterMark);
+        log.info("Read the events of {} carts", carts.size());
+
+        try (Connection connection = connect()) {
+            connection.setAutoCommit(false);
+            int loaded = loadShadowTable(connection, carts);
+            connection.commit();
+            log.info("Loaded {} reports in the shadow table", loaded);
+
+            swap(connection, highWaterMark);
+            connection.commit();
+            log.info("Swapped in the rebuilt reports, the report processor resumes from ordering {}", highWaterMark);
+        }
+    }
+
+    private long[] findRange() throws SQLException {
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(findRangeQuery)) {
+            rs.next();
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    /**
+     * Wait until the orderings up to the head of the journal have all been written or
+     * given up on, and return the head.
+     */
+    private long findHighWaterMark(long head) throws SQLException, InterruptedException {
+        JournalGapTracker tracker = new JournalGapTracker(Math.max(0, head - gapSettings.getInt("batch-size")),
+                gapSettings.getDuration("give-up-after"), System::nanoTime);
+        try (Connection connection = connect()) {
+            connection.setReadOnly(true);
+            while (true) {
+                try (PreparedStatement statement = connection.prepareStatement(findOrderingsQuery)) {
+                    statement.setLong(1, tracker.safeMax());
+                    statement.setLong(2, head);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            tracker.found(rs.getLong(1));
+                        }
+                    }
+                }
+                tracker.abandonExpired();
+                if (tracker.safeMax() >= head) {
+                    if (tracker.abandoned() > 0) {
+                        log.warn("Gave up on {} journal orderings below ordering {}", tracker.abandoned(), head);
+                    }
+                    return head;
+                }
+                log.info("Waiting for {} journal orderings below ordering {} to be written", tracker.pending(), head);
+                Thread.sleep(gapSettings.getDuration("poll-interval").toMillis());
+            }
+        }
+    }
+
+    /**
+     * Read the events in (from, until], one ordering range per partition.
+     */
+    private Map<String, CartTimes> readJournal(long from, long until) {
+        int partitions = settings.getInt("partitions");
+        long size = Math.max(1, (until - from + partitions - 1) / partitions);
+        ForkJoinPool pool = new ForkJoinPool(settings.getInt("parallelism"));
+        try {
+            List<CompletableFuture<Map<String, CartTimes>>> reads = new ArrayList<>();
+            for (long start = from; start < until; start += size) {
+                long rangeFrom = start;
+                long rangeUntil = Math.min(until, start + size);
+                reads.add(CompletableFuture.supplyAsync(() -> readRange(rangeFrom, rangeUntil), pool));
+            }
+            Map<String, CartTimes> carts = new HashMap<>();
+            for (CompletableFuture<Map<String, CartTimes>> read : reads) {
+                read.join().forEach((cartId, times) -> carts.merge(cartId, times, CartTimes::merge));
+            }
+            return carts;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Map<String, CartTimes> readRange(long from, long until) {
+        Map<String, CartTimes> carts = new HashMap<>();
+        int fetchSize = settings.getInt("fetch-size");
+        try (Connection connection = connect()) {
+            // the driver only streams the rows within a transaction
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (PreparedStatement statement = connection.prepareStatement(findEventsQuery)) {
+                statement.setFetchSize(fetchSize);
+                statement.setLong(1, from);
+                statement.setLong(2, until);
+                try (ResultSet rs = statement.executeQuery()) {
+                    int rows = 0;
+                    while (rs.next()) {
+                        if (rows++ % fetchSize == 0) {
+                            rateLimiter.acquire(fetchSize);
+                        }
+                        apply(carts, rs.getLong(1), serialization.deserialize(rs.getBytes(2), PersistentRepr.class).get().payload());
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        log.info("Read the events from ordering {} to {}", from + 1, until);
+        return carts;
+    }
+
+    /**
+     * Reduce an event the way {@link ShoppingCartReportProcessor} applies it.
+     */
+    static void apply(Map<String, CartTimes> carts, long ordering, Object event) {
+        if (event instanceof ShoppingCartEvent.ItemUpdated) {
+            ShoppingCartEvent.ItemUpdated itemUpdated = (ShoppingCartEvent.ItemUpdated) event;
+            carts.computeIfAbsent(itemUpdated.getShoppingCartId(), id -> new CartTimes()).created(ordering, itemUpdated.getEventTime());
+        } else if (event instanceof ShoppingCartEvent.CheckedOut) {
+            ShoppingCartEvent.CheckedOut checkedOut = (ShoppingCartEvent.CheckedOut) event;
+            carts.computeIfAbsent(checkedOut.getShoppingCartId(), id -> new CartTimes()).checkoutDate = checkedOut.getEventTime();
+        }
+    }
+
+    private int loadShadowTable(Connection connection, Map<String, CartTimes> carts) throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS ShoppingCartReport_rebuild");
+            statement.execute("CREATE TABLE ShoppingCartReport_rebuild (LIKE ShoppingCartReport INCLUDING DEFAULTS)");
+        }
+        CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+        String copySql = "COPY ShoppingCartReport_rebuild (id, creationDate, checkoutDate) FROM STDIN WITH (FORMAT csv)";
+        StringBuilder chunk = new StringBuilder();
+        int loaded = 0;
+        int rows = 0;
+        for (Map.Entry<String, CartTimes> cart : carts.entrySet()) {
+            CartTimes times = cart.getValue();
+            if (times.creationDate == null) {
+                // the report processor can't check out a cart it hasn't created either
+                log.warn("Skipping cart {}, it was checked out without a report nor items", cart.getKey());
+                continue;
+            }
+            chunk.append('"').append(cart.getKey().replace("\"", "\"\"")).append("\",")
+                    .append(Timestamp.from(times.creationDate)).append(',')
+                    .append(times.checkoutDate == null ? "" : Timestamp.from(times.checkoutDate).toString())
+                    .append('\n');
+            if (++rows == COPY_CHUNK) {
+                rateLimiter.acquire(rows);
+                loaded += copy.copyIn(copySql, new StringReader(chunk.toString()));
+                chunk.setLength(0);
+                rows = 0;
+            }
+        }
+        if (rows > 0) {
+            rateLimiter.acquire(rows);
+            loaded += copy.copyIn(copySql, new StringReader(chunk.toString()));
+        }
+        try (Statement statement = connection.createStatement()) {
+            // indexed once loaded, faster than maintaining the index while copying
+            statement.execute("ALTER TABLE ShoppingCartReport_rebuild ADD CONSTRAINT ShoppingCartReport_rebuild_pkey PRIMARY KEY (id)");
+        }
+        return loaded;
+    }
+
+    private void swap(Connection connection, long highWaterMark) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS ShoppingCartReport_old");
+            statement.execute("ALTER TABLE ShoppingCartReport RENAME TO ShoppingCartReport_old");
+            statement.execute("ALTER TABLE ShoppingCartReport_old RENAME CONSTRAINT ShoppingCartReport_pkey TO ShoppingCartReport_old_pkey");
+            statement.execute("ALTER TABLE ShoppingCartReport_rebuild RENAME TO ShoppingCartReport");
+            statement.execute("ALTER TABLE ShoppingCartReport RENAME CONSTRAINT ShoppingCartReport_rebuild_pkey TO ShoppingCartReport_pkey");
+        }
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM read_side_offsets WHERE read_side_id = ?")) {
+            delete.setString(1, ShoppingCartReportProcessor.READ_SIDE_ID);
+            delete.executeUpdate();
+        }
+        List<String> tags = new ArrayList<>();
+        for (AggregateEventTag<ShoppingCartEvent> tag : ShoppingCartEvent.TAG.allTags()) {
+            tags.add(tag.tag());
+        }
+        tags.add(ShoppingCartEvent.LEGACY_TAG.tag());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO read_side_offsets (read_side_id, tag, sequence_offset, time_uuid_offset) VALUES (?, ?, ?, NULL)")) {
+            for (String tag : tags) {
+                insert.setString(1, ShoppingCartReportProcessor.READ_SIDE_ID);
+                insert.setString(2, tag);
+                insert.setLong(3, highWaterMark);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.shoppingcart.impl;
 
 import akka.Done;
 import com.example.shoppingcart.api.ShoppingCart;
+import com.example.shoppingcart.api.ShoppingCartItem;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Preconditions;
@@ -9,6 +10,7 @@ import com.lightbend.lagom.javadsl.persistence.PersistentEntity;
 import com.lightbend.lagom.serialization.CompressedJsonable;
 import com.lightbend.lagom.serialization.Jsonable;
 import lombok.Value;
+import org.pcollections.PSequence;
 
 /**
  * This interface defines all the commands that the {@link ShoppingCartEntity} supports.
@@ -38,6 +40,26 @@ public interface ShoppingCartCommand extends Jsonable {
         }
     }
 
+    /**
+     * A command to update many items at once.
+     *
+     * The items are applied in order and all the resulting events are persisted
+     * atomically, so either the whole batch is applied or none of it is. It has a
+     * reply type of {@link akka.Done}, which is sent back to the caller when all
+     * the events emitted by this command are successfully persisted.
+     */
+    @SuppressWarnings("serial")
+    @Value
+    @JsonDeserialize
+    final class UpdateItems implements ShoppingCartCommand, CompressedJsonable, PersistentEntity.ReplyType<Done> {
+        public final PSequence<ShoppingCartItem> items;
+
+        @JsonCreator
+        UpdateItems(PSequence<ShoppingCartItem> items) {
+            this.items = Preconditions.checkNotNull(items, "items");
+        }
+    }
+
     /**
      * A command to get the current state of the shopping cart.
      *
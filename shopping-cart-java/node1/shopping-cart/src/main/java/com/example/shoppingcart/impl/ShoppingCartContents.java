@@ -0,0 +1,144 @@
+package com.example.shoppingcart.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * The contents of a shopping cart as projected by {@link ShoppingCartContentsProcessor},
+ * one row per cart.
+ * <p>
+ * The items are stored as a JSON object of product ids to quantities, the way
+ * {@link CartItems} serializes. The version counts the events applied, which the version
+ * of a {@link ShoppingCartState} recovered from a snapshot doesn't always match, and
+ * compacted carts have fewer events, see {@link VersionedCart}.
+ * <p>
+ * The events of a cart written both before and after the tags were sharded are processed
+ * by two workers, the legacy one and a shard one, which may apply them out of order. Such
+ * a cart has both {@code fromLegacyTag} and {@code fromShardedTag} set and its items
+ * can't be trusted, see {@link #isConsistent()}.
+ */
+@Entity
+public class ShoppingCartContents {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<Map<String, Integer>> ITEMS_TYPE = new TypeReference<Map<String, Integer>>() {};
+
+    /**
+     * The ID of the shopping cart.
+     */
+    @Id
+    private String id;
+
+    @NotNull
+    @Column(columnDefinition = "text")
+    private String items = "{}";
+
+    private boolean checkedOut;
+
+    private long version;
+
+    /**
+     * The time of the last event applied.
+     */
+    private Instant lastEventTime;
+
+    private boolean fromLegacyTag;
+
+    private boolean fromShardedTag;
+
+    /**
+     * The contents of a cart as read from its row.
+     */
+    static ShoppingCartContents of(String id, String items, boolean checkedOut, long version, Instant lastEventTime,
+                                   boolean fromLegacyTag, boolean fromShardedTag) {
+        ShoppingCartContents contents = new ShoppingCartContents();
+        contents.id = id;
+        contents.items = items;
+        contents.checkedOut = checkedOut;
+        contents.version = version;
+        contents.lastEventTime = lastEventTime;
+        contents.fromLegacyTag = fromLegacyTag;
+        contents.fromShardedTag = fromShardedTag;
+        return contents;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public boolean isCheckedOut() {
+        return checkedOut;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getLastEventTime() {
+        return lastEventTime;
+    }
+
+    /**
+     * Whether the events of the cart were all applied, in order.
+     */
+    public boolean isConsistent() {
+        return !(fromLegacyTag && fromShardedTag);
+    }
+
+    void apply(ShoppingCartEvent.ItemUpdated evt, boolean legacyTag) {
+        items = encode(decode(items).updated(evt.productId, evt.quantity));
+        applied(evt.eventTime, legacyTag);
+    }
+
+    void apply(ShoppingCartEvent.CheckedOut evt, boolean legacyTag) {
+        checkedOut = true;
+        applied(evt.eventTime, legacyTag);
+    }
+
+    private void applied(Instant eventTime, boolean legacyTag) {
+        version++;
+        lastEventTime = eventTime;
+        if (legacyTag) {
+            fromLegacyTag = true;
+        } else {
+            fromShardedTag = true;
+        }
+    }
+
+    /**
+     * The state of the cart, as the entity would have it.
+     */
+    ShoppingCartState toState() {
+        return new ShoppingCartState(decode(items), checkedOut, version);
+    }
+
+    static CartItems decode(String items) {
+        try {
+            return CartItems.fromMap(JSON.readValue(items, ITEMS_TYPE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String encode(CartItems items) {
+        try {
+            return JSON.writeValueAsString(items.toMap());
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -12,5 +12,14 @@ public class ShoppingCartModule extends AbstractModule implements ServiceGuiceSu
     protected void configure() {
         bindService(ShoppingCartService.class, ShoppingCartServiceImpl.class);
         bind(ReportRepository.class);
+        bind(ReportQueries.class);
+        bind(CartContentsRepository.class);
+        bind(ShoppingCartReportCache.class);
+        bind(ShoppingCartMetrics.class);
+        bind(CartChanges.class);
+        bind(ReadSideLag.class);
+        bind(JournalWriteMetrics.class).asEagerSingleton();
+        bind(JournalGapMetrics.class).asEagerSingleton();
+        bind(JournalCompaction.class).asEagerSingleton();
     }
 }
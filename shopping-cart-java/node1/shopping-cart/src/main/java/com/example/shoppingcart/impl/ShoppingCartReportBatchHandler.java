@@ -0,0 +1,160 @@
+package com.example.shoppingcart.impl;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.persistence.query.NoOffset;
+import akka.persistence.query.Sequence;
+import akka.stream.javadsl.Flow;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.lightbend.lagom.spi.persistence.OffsetDao;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import scala.compat.java8.FutureConverters;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * Handles the report projection events in micro-batches.
+ * <p>
+ * Events are grouped until {@code maxEvents} have arrived or {@code maxWait} has
+ * elapsed. Each batch is reduced to the first creation and the last checkout of
+ * each cart, applied in a single JPA transaction with one query to load the
+ * existing reports (inserts and updates are then flushed as JDBC batches), and
+ * its offset is stored once, after the transaction commits. The cached reports
+ * of the batch are invalidated once it has committed. A crash between the
+ * commit and the offset write replays the batch, which is harmless since applying
+ * a batch again leaves the reports unchanged.
+ */
+class ShoppingCartReportBatchHandler extends ReadSideHandler<ShoppingCartEvent> {
+
+    private final String readSideId;
+    private final JpaSession jpaSession;
+    private final OffsetStore offsetStore;
+    private final ShoppingCartReportCache cache;
+    private final Consumer<EntityManager> globalPrepare;
+    private final int maxEvents;
+    private final Duration maxWait;
+
+    private volatile OffsetDao offsetDao;
+
+    ShoppingCartReportBatchHandler(String readSideId, JpaSession jpaSession, OffsetStore offsetStore,
+                                   ShoppingCartReportCache cache, Consumer<EntityManager> globalPrepare, int maxEvents, Duration maxWait) {
+        this.readSideId = readSideId;
+        this.jpaSession = jpaSession;
+        this.offsetStore = offsetStore;
+        this.cache = cache;
+        this.globalPrepare = globalPrepare;
+        this.maxEvents = maxEvents;
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    public CompletionStage<Done> globalPrepare() {
+        return jpaSession.withTransaction(entityManager -> {
+            globalPrepare.accept(entityManager);
+            return Done.getInstance();
+        });
+    }
+
+    @Override
+    public CompletionStage<Offset> prepare(AggregateEventTag<ShoppingCartEvent> tag) {
+        return FutureConverters.toJava(offsetStore.prepare(readSideId, tag.tag())).thenApply(dao -> {
+            offsetDao = dao;
+            return toDslOffset(dao.loadedOffset());
+        });
+    }
+
+    @Override
+    public Flow<Pair<ShoppingCartEvent, Offset>, Done, ?> handle() {
+        return Flow.<Pair<ShoppingCartEvent, Offset>>create()
+                .groupedWithin(maxEvents, maxWait)
+                .mapAsync(1, this::handleBatch);
+    }
+
+    private CompletionStage<Done> handleBatch(List<Pair<ShoppingCartEvent, Offset>> batch) {
+        Offset lastOffset = batch.get(batch.size() - 1).second();
+        return jpaSession
+                .withTransaction(entityManager -> {
+                    applyBatch(entityManager, batch);
+                    return Done.getInstance();
+                })
+                .thenCompose(done -> FutureConverters.toJava(offsetDao.saveOffset(toAkkaOffset(lastOffset))));
+    }
+
+    private void applyBatch(EntityManager entityManager, List<Pair<ShoppingCartEvent, Offset>> batch) {
+        Map<String, Instant> creations = new LinkedHashMap<>();
+        Map<String, Instant> checkouts = new LinkedHashMap<>();
+        for (Pair<ShoppingCartEvent, Offset> pair : batch) {
+            ShoppingCartEvent event = pair.first();
+            if (event instanceof ShoppingCartEvent.ItemUpdated) {
+                ShoppingCartEvent.ItemUpdated itemUpdated = (ShoppingCartEvent.ItemUpdated) event;
+                creations.putIfAbsent(itemUpdated.shoppingCartId, itemUpdated.eventTime);
+            } else if (event instanceof ShoppingCartEvent.CheckedOut) {
+                ShoppingCartEvent.CheckedOut checkedOut = (ShoppingCartEvent.CheckedOut) event;
+                checkouts.put(checkedOut.shoppingCartId, checkedOut.eventTime);
+            }
+        }
+
+        List<String> cartIds = new ArrayList<>(creations.keySet());
+        for (String cartId : checkouts.keySet()) {
+            if (!creations.containsKey(cartId)) cartIds.add(cartId);
+        }
+        if (cartIds.isEmpty()) return;
+
+        Map<String, ShoppingCartReport> reports = new HashMap<>();
+        for (ShoppingCartReport report : entityManager
+                .createQuery("SELECT r FROM ShoppingCartReport r WHERE r.id IN :ids", ShoppingCartReport.class)
+                .setParameter("ids", cartIds)
+                .getResultList()) {
+            reports.put(report.getId(), report);
+        }
+
+        for (Map.Entry<String, Instant> creation : creations.entrySet()) {
+            if (!reports.containsKey(creation.getKey())) {
+                ShoppingCartReport report = new ShoppingCartReport();
+                report.setId(creation.getKey());
+                report.setCreationDate(creation.getValue());
+                entityManager.persist(report);
+                reports.put(report.getId(), report);
+            }
+        }
+
+        for (Map.Entry<String, Instant> checkout : checkouts.entrySet()) {
+            ShoppingCartReport report = reports.get(checkout.getKey());
+            if (report != null) {
+                report.setCheckoutDate(checkout.getValue());
+            } else {
+                throw new RuntimeException("Didn't find cart for checkout. CartID: " + checkout.getKey());
+            }
+        }
+
+        cache.invalidateAfterCommit(entityManager, cartIds);
+    }
+
+    private static Offset toDslOffset(akka.persistence.query.Offset offset) {
+        if (offset instanceof Sequence) {
+            return Offset.sequence(((Sequence) offset).value());
+        } else {
+            return Offset.NONE;
+        }
+    }
+
+    private static akka.persistence.query.Offset toAkkaOffset(Offset offset) {
+        if (offset instanceof Offset.Sequence) {
+            return akka.persistence.query.Offset.sequence(((Offset.Sequence) offset).value());
+        } else {
+            return NoOffset.getInstance();
+        }
+    }
+}
@@ -4,28 +4,63 @@ import com.google.common.collect.ImmutableMap;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
 import com.lightbend.lagom.javadsl.persistence.jpa.JpaReadSide;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.lightbend.lagom.spi.persistence.OffsetStore;
+import com.typesafe.config.Config;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Persistence;
+import java.time.Duration;
 
 public class ShoppingCartReportProcessor extends ReadSideProcessor<ShoppingCartEvent> {
 
+    static final String READ_SIDE_ID = "shopping-cart-report";
+
     private final JpaReadSide jpaReadSide;
 
+    private final JpaSession jpaSession;
+
+    private final OffsetStore offsetStore;
+
+    private final ShoppingCartReportCache cache;
+
+    private final boolean consumeLegacyTag;
+
+    private final boolean batchEnabled;
+
+    private final int batchMaxEvents;
+
+    private final Duration batchMaxWait;
 
     @Inject
-    public ShoppingCartReportProcessor(JpaReadSide jpaReadSide) {
+    public ShoppingCartReportProcessor(JpaReadSide jpaReadSide, JpaSession jpaSession, OffsetStore offsetStore,
+                                       ShoppingCartReportCache cache, Config config) {
         this.jpaReadSide = jpaReadSide;
+        this.jpaSession = jpaSession;
+        this.offsetStore = offsetStore;
+        this.cache = cache;
+        this.consumeLegacyTag = config.getBoolean("shopping-cart.report.consume-legacy-tag");
+        this.batchEnabled = config.getBoolean("shopping-cart.report.batch.enabled");
+        this.batchMaxEvents = config.getInt("shopping-cart.report.batch.max-events");
+        this.batchMaxWait = config.getDuration("shopping-cart.report.batch.max-wait");
     }
 
 
+    /**
+     * When batching is enabled events are applied in micro-batches, see
+     * {@link ShoppingCartReportBatchHandler}, otherwise each event is applied in its
+     * own transaction.
+     */
     @Override
     public ReadSideHandler<ShoppingCartEvent> buildHandler() {
+        if (batchEnabled) {
+            return new ShoppingCartReportBatchHandler(READ_SIDE_ID, jpaSession, offsetStore, cache, this::createSchema, batchMaxEvents, batchMaxWait);
+        }
         return jpaReadSide
-                .<ShoppingCartEvent>builder("shopping-cart-report")
+                .<ShoppingCartEvent>builder(READ_SIDE_ID)
                 .setGlobalPrepare(this::createSchema)
                 .setEventHandler(ShoppingCartEvent.ItemUpdated.class, this::createReport)
                 .setEventHandler(ShoppingCartEvent.CheckedOut.class, this::addCheckoutTime)
@@ -42,6 +77,7 @@ public class ShoppingCartReportProcessor extends ReadSideProcessor<ShoppingCartE
             report.setId(evt.shoppingCartId);
             report.setCreationDate(evt.eventTime);
             entityManager.persist(report);
+            cache.invalidateAfterCommit(entityManager, evt.shoppingCartId);
         }
     }
 
@@ -50,6 +86,7 @@ public class ShoppingCartReportProcessor extends ReadSideProcessor<ShoppingCartE
         if (report != null) {
             report.setCheckoutDate(evt.eventTime);
             entityManager.persist(report);
+            cache.invalidateAfterCommit(entityManager, evt.shoppingCartId);
         } else {
             throw new RuntimeException("Didn't find cart for checkout. CartID: " + evt.shoppingCartId);
         }
@@ -59,9 +96,20 @@ public class ShoppingCartReportProcessor extends ReadSideProcessor<ShoppingCartE
     }
 
 
+    /**
+     * One worker per tag shard, so the projection is spread over the cluster.
+     * <p>
+     * While {@code shopping-cart.report.consume-legacy-tag} is on, a worker also
+     * drains the events tagged before the tags were sharded, resuming from the
+     * offset already stored for the legacy tag in {@code read_side_offsets}. Once
+     * its offset has reached the last legacy event it can be turned off. Until
+     * then, a checkout seen by a shard worker before the legacy worker created the
+     * report fails the shard worker, which is restarted and retries it.
+     */
     @Override
     public PSequence<AggregateEventTag<ShoppingCartEvent>> aggregateTags() {
-        return TreePVector.singleton(ShoppingCartEvent.TAG);
+        PSequence<AggregateEventTag<ShoppingCartEvent>> tags = TreePVector.from(ShoppingCartEvent.TAG.allTags());
+        return consumeLegacyTag ? tags.plus(ShoppingCartEvent.LEGACY_TAG) : tags;
     }
 
 }
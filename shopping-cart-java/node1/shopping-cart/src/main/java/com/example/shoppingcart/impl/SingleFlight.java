@@ -0,0 +1,63 @@
+package com.example.shoppingcart.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: while a load is in flight, further
+ * requests for its key share its result instead of starting their own.
+ * <p>
+ * A load is forgotten as soon as it completes, so results are never reused after the
+ * fact. Writers call {@link #forget} once a write has completed, so that a request
+ * made after the write doesn't join a load that may have started before it.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    CompletionStage<V> get(K key, Supplier<CompletionStage<V>> load) {
+        requests.increment();
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        try {
+            load.get().whenComplete((value, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error);
+                } else {
+                    flight.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight;
+    }
+
+    void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    long inFlight() {
+        return inFlight.size();
+    }
+}
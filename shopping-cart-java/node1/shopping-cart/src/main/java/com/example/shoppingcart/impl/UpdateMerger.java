@@ -0,0 +1,133 @@
+package com.example.shoppingcart.impl;
+
+import akka.Done;
+import akka.actor.Scheduler;
+import com.example.shoppingcart.api.ShoppingCartItem;
+import org.pcollections.PSequence;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Merges the item updates sent to a cart within a short window into a single
+ * {@link ShoppingCartCommand.UpdateItems} command, last write wins per product (see
+ * {@link ItemUpdates#coalesce}).
+ * <p>
+ * The updates of a window all succeed or fail together. When the merged command is
+ * rejected by the cart, for example because one of the updates is invalid, the updates
+ * are sent again one by one so that every caller gets the outcome of its own update.
+ */
+class UpdateMerger {
+
+    private static final class Pending {
+        final ShoppingCartItem item;
+        final CompletableFuture<Done> result = new CompletableFuture<>();
+
+        Pending(ShoppingCartItem item) {
+            this.item = item;
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final ExecutionContext executionContext;
+    private final FiniteDuration window;
+    private final BiFunction<String, PSequence<ShoppingCartItem>, CompletionStage<Done>> updateItems;
+    private final BiFunction<String, ShoppingCartItem, CompletionStage<Done>> updateItem;
+
+    private final ConcurrentMap<String, List<Pending>> windows = new ConcurrentHashMap<>();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    UpdateMerger(Scheduler scheduler, ExecutionContext executionContext, Duration window,
+                 BiFunction<String, PSequence<ShoppingCartItem>, CompletionStage<Done>> updateItems,
+                 BiFunction<String, ShoppingCartItem, CompletionStage<Done>> updateItem) {
+        this.scheduler = scheduler;
+        this.executionContext = executionContext;
+        this.window = FiniteDuration.create(window.toNanos(), TimeUnit.NANOSECONDS);
+        this.updateItems = updateItems;
+        this.updateItem = updateItem;
+    }
+
+    CompletionStage<Done> submit(String cartId, ShoppingCartItem item) {
+        Pending pending = new Pending(item);
+        boolean[] opened = {false};
+        windows.compute(cartId, (id, current) -> {
+            List<Pending> window = current;
+            if (window == null) {
+                window = new ArrayList<>();
+                opened[0] = true;
+            }
+            window.add(pending);
+            return window;
+        });
+        merged.increment();
+        if (opened[0]) {
+            scheduler.scheduleOnce(window, () -> flush(cartId), executionContext);
+        }
+        return pending.result;
+    }
+
+    private void flush(String cartId) {
+        List<Pending> window = windows.remove(cartId);
+        if (window == null) {
+            return;
+        }
+        batches.increment();
+        List<ShoppingCartItem> items = new ArrayList<>(window.size());
+        for (Pending pending : window) {
+            items.add(pending.item);
+        }
+        updateItems.apply(cartId, ItemUpdates.coalesce(items)).whenComplete((done, error) -> {
+            if (error == null) {
+                window.forEach(pending -> pending.result.complete(done));
+            } else if (!(unwrap(error) instanceof ShoppingCartException)) {
+                // not a rejection of the updates, sending them again would only add load
+                window.forEach(pending -> pending.result.completeExceptionally(error));
+            } else {
+                fallbacks.increment();
+                // one at a time, in the order they were submitted
+                CompletionStage<Done> previous = CompletableFuture.completedFuture(Done.getInstance());
+                for (Pending pending : window) {
+                    previous = previous
+                            .handle((previousDone, previousError) -> Done.getInstance())
+                            .thenCompose(ignored -> updateItem.apply(cartId, pending.item))
+                            .whenComplete((itemDone, itemError) -> {
+                                if (itemError == null) {
+                                    pending.result.complete(itemDone);
+                                } else {
+                                    pending.result.completeExceptionally(itemError);
+                                }
+                            });
+                }
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException ? error.getCause() : error;
+    }
+
+    long merged() {
+        return merged.sum();
+    }
+
+    long batches() {
+        return batches.sum();
+    }
+
+    long fallbacks() {
+        return fallbacks.sum();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void shouldRejectCallsOverTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 2.0, 0.2);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        limiter.run(() -> first);
+        limiter.run(CompletableFuture::new);
+
+        CompletionStage<String> rejected = limiter.run(() -> CompletableFuture.completedFuture("not run"));
+
+        assertTrue(rejected.toCompletableFuture().isCompletedExceptionally());
+        assertEquals(1, limiter.rejected());
+        assertEquals(2, limiter.inFlight());
+
+        first.complete("done");
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void shouldGrowWhileLatencyIsSteady() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 10, 100, 2.0, 0.2);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(10 * MILLIS, limiter.limit(), false);
+        }
+        assertEquals(100, limiter.limit());
+    }
+
+    @Test
+    public void shouldShrinkWhenLatencyGrows() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 100, 2.0, 0.2);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(10 * MILLIS, limiter.limit(), false);
+        }
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(200 * MILLIS, limiter.limit(), false);
+        }
+        assertTrue("limit " + limiter.limit() + " should have shrunk", limiter.limit() < 50);
+    }
+
+    @Test
+    public void shouldShrinkOnTimeouts() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 100, 2.0, 0.2);
+        limiter.onSample(5000 * MILLIS, 100, true);
+        assertEquals(90, limiter.limit());
+    }
+
+    @Test
+    public void shouldNotGrowWhenMostlyIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 10, 100, 2.0, 0.2);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(10 * MILLIS, 2, false);
+        }
+        assertEquals(20, limiter.limit());
+    }
+}
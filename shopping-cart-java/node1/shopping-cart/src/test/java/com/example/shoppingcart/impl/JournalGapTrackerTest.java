@@ -0,0 +1,84 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+
+public class JournalGapTrackerTest {
+
+    private long now = 0;
+    private final JournalGapTracker tracker = new JournalGapTracker(10, Duration.ofSeconds(10), () -> now);
+
+    @Test
+    public void advancesWithoutGaps() {
+        tracker.found(11);
+        tracker.found(12);
+
+        assertEquals(12, tracker.safeMax());
+        assertEquals(0, tracker.seen());
+    }
+
+    @Test
+    public void stopsBeforeTheFirstGap() {
+        tracker.found(11);
+        tracker.found(14);
+        tracker.found(15);
+
+        assertEquals(11, tracker.safeMax());
+        assertEquals(15, tracker.maxSeen());
+        assertEquals(2, tracker.seen());
+        assertEquals(2, tracker.pending());
+    }
+
+    @Test
+    public void advancesOnceTheGapIsFilled() {
+        tracker.found(14);
+        tracker.found(12);
+        assertEquals(10, tracker.safeMax());
+
+        tracker.found(11);
+        assertEquals(12, tracker.safeMax());
+
+        tracker.found(13);
+        assertEquals(14, tracker.safeMax());
+        assertEquals(3, tracker.resolved());
+        assertEquals(0, tracker.pending());
+    }
+
+    @Test
+    public void keepsTheRestOfAGapWhenPartOfItIsFilled() {
+        tracker.found(20);
+        tracker.found(15);
+
+        assertEquals(2, tracker.gaps().size());
+        assertEquals(8, tracker.pending());
+        assertEquals(1, tracker.resolved());
+    }
+
+    @Test
+    public void givesUpOnGapsAfterTheTimeout() {
+        tracker.found(13);
+        now += Duration.ofSeconds(5).toNanos();
+        tracker.found(15);
+
+        now += Duration.ofSeconds(5).toNanos();
+        tracker.abandonExpired();
+
+        // the first gap is given up on, the second one isn't old enough yet
+        assertEquals(13, tracker.safeMax());
+        assertEquals(2, tracker.abandoned());
+        assertEquals(1, tracker.pending());
+    }
+
+    @Test
+    public void ignoresOrderingsAlreadySeen() {
+        tracker.found(11);
+        tracker.found(11);
+        tracker.found(5);
+
+        assertEquals(11, tracker.safeMax());
+        assertEquals(0, tracker.resolved());
+    }
+}
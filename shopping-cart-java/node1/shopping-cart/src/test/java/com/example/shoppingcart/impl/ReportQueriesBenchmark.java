@@ -0,0 +1,87 @@
+package com.example.shoppingcart.impl;
+
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest;
+import org.HdrHistogram.Histogram;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.defaultSetup;
+
+/**
+ * Compares the latency of a report lookup through JPA ({@link ReportRepository#findById})
+ * and through plain JDBC ({@link ReportQueries#findView}), against the in-memory
+ * database of the test server so that the difference is the overhead of each path.
+ * <p>
+ * Run with {@code sbt "shopping-cart/test:runMain com.example.shoppingcart.impl.ReportQueriesBenchmark [reports] [lookups]"}.
+ */
+public class ReportQueriesBenchmark {
+
+    public static void main(String[] args) {
+        int reports = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        ServiceTest.TestServer testServer = ServiceTest.startServer(defaultSetup().withJdbc());
+        try {
+            JpaSession jpaSession = testServer.injector().instanceOf(JpaSession.class);
+            ReportRepository repository = testServer.injector().instanceOf(ReportRepository.class);
+            ReportQueries queries = testServer.injector().instanceOf(ReportQueries.class);
+
+            List<String> cartIds = seed(jpaSession, reports);
+
+            // warm up both paths before measuring
+            run(cartIds, lookups / 10, repository::findById);
+            run(cartIds, lookups / 10, queries::findView);
+
+            print("jpa ", run(cartIds, lookups, repository::findById));
+            print("jdbc", run(cartIds, lookups, queries::findView));
+        } finally {
+            testServer.stop();
+        }
+    }
+
+    private static List<String> seed(JpaSession jpaSession, int reports) {
+        List<String> cartIds = new ArrayList<>(reports);
+        for (int i = 0; i < reports; i++) {
+            cartIds.add("benchmark-" + i);
+        }
+        Await.result(jpaSession.withTransaction(em -> {
+            for (String cartId : cartIds) {
+                ShoppingCartReport report = new ShoppingCartReport();
+                report.setId(cartId);
+                report.setCreationDate(Instant.now());
+                em.persist(report);
+            }
+            return cartIds.size();
+        }));
+        return cartIds;
+    }
+
+    private static Histogram run(List<String> cartIds, int lookups, Function<String, CompletionStage<?>> lookup) {
+        Histogram histogram = new Histogram(TimeUnit.SECONDS.toMicros(10), 3);
+        for (int i = 0; i < lookups; i++) {
+            String cartId = cartIds.get(ThreadLocalRandom.current().nextInt(cartIds.size()));
+            long start = System.nanoTime();
+            Await.result(lookup.apply(cartId));
+            histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+        return histogram;
+    }
+
+    private static void print(String path, Histogram histogram) {
+        System.out.printf("%s: lookups=%d mean=%.1fus p50=%dus p99=%dus p99.9=%dus max=%dus%n",
+                path,
+                histogram.getTotalCount(),
+                histogram.getMean(),
+                histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9),
+                histogram.getMaxValue());
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShoppingCartContentsTest {
+
+    private final Instant now = Instant.now();
+    private final ShoppingCartContents contents = new ShoppingCartContents();
+
+    @Test
+    public void foldsTheEventsLikeTheEntity() {
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "abc", 2, now), false);
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "def", 1, now), false);
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "abc", 0, now), false);
+        contents.apply(new ShoppingCartEvent.CheckedOut("123", now.plusSeconds(1)), false);
+
+        ShoppingCartState expected = ShoppingCartState.EMPTY
+                .updateItem("abc", 2)
+                .updateItem("def", 1)
+                .updateItem("abc", 0)
+                .checkout();
+        ShoppingCartState state = contents.toState();
+        assertEquals(expected, state);
+        assertEquals(expected.getVersion(), state.getVersion());
+        assertEquals(now.plusSeconds(1), contents.getLastEventTime());
+        assertTrue(contents.isConsistent());
+    }
+
+    @Test
+    public void keepsTheItemsThroughTheirRow() {
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "abc", 2, now), false);
+        ShoppingCartState state = contents.toState();
+
+        String items = ShoppingCartContents.encode(state.getItems());
+        ShoppingCartContents read = ShoppingCartContents.of("123", items, false, 1, now, false, true);
+
+        assertEquals(state, read.toState());
+    }
+
+    @Test
+    public void isInconsistentWhenFedByTheLegacyAndAShardTag() {
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "abc", 2, now), true);
+        assertTrue(contents.isConsistent());
+
+        contents.apply(new ShoppingCartEvent.ItemUpdated("123", "abc", 3, now), false);
+        assertFalse(contents.isConsistent());
+    }
+}
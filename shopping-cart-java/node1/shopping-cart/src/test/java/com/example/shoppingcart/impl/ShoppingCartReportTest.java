@@ -1,5 +1,6 @@
 package com.example.shoppingcart.impl;
 
+import com.example.shoppingcart.api.ShoppingCartReportView;
 import com.lightbend.lagom.internal.javadsl.api.broker.TopicFactory;
 import com.lightbend.lagom.javadsl.persistence.Offset;
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
@@ -7,10 +8,13 @@ import com.lightbend.lagom.javadsl.testkit.ReadSideTestDriver;
 import com.lightbend.lagom.javadsl.testkit.ServiceTest;
 import org.junit.AfterClass;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -19,19 +23,35 @@ import java.util.concurrent.atomic.AtomicInteger;
 import static com.lightbend.lagom.javadsl.testkit.ServiceTest.bind;
 import static com.lightbend.lagom.javadsl.testkit.ServiceTest.defaultSetup;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
+/**
+ * Runs against the report projection applying each event in its own transaction and
+ * applying them in batches, see {@code shopping-cart.report.batch.enabled}.
+ */
+@RunWith(Parameterized.class)
 public class ShoppingCartReportTest {
 
-    private final static ServiceTest.Setup setup = defaultSetup().withJdbc()
-            .configureBuilder(b ->
-                    b.overrides(
-                            bind(ReadSide.class).to(ReadSideTestDriver.class)
-                    )
+    @Parameterized.Parameters(name = "batch enabled: {0}")
+    public static Collection<Object[]> batchEnabled() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
+    private static ServiceTest.Setup setup(boolean batchEnabled) {
+        return defaultSetup().withJdbc()
+                .configureBuilder(b ->
+                        b.configure("shopping-cart.report.batch.enabled", batchEnabled)
+                                .overrides(
+                                        bind(ReadSide.class).to(ReadSideTestDriver.class)
+                                )
 
-            );
+                );
+    }
 
+    // The tests of each mode run one after the other, each mode starts its own server
     private static ServiceTest.TestServer testServer;
+    private static boolean testServerBatchEnabled;
 
 
     private AtomicInteger offset;
@@ -41,18 +61,24 @@ public class ShoppingCartReportTest {
         offset = new AtomicInteger(1);
     }
 
-    @BeforeClass
-    public static void beforeAll() {
-        testServer = ServiceTest.startServer(setup);
-    }
-
     @AfterClass
     public static void afterAll() {
         if (testServer != null) testServer.stop();
+        testServer = null;
     }
 
-    private ReadSideTestDriver testDriver = testServer.injector().instanceOf(ReadSideTestDriver.class);
-    private ReportRepository reportRepository = testServer.injector().instanceOf(ReportRepository.class);
+    private final ReadSideTestDriver testDriver;
+    private final ReportRepository reportRepository;
+
+    public ShoppingCartReportTest(boolean batchEnabled) {
+        if (testServer == null || testServerBatchEnabled != batchEnabled) {
+            afterAll();
+            testServer = ServiceTest.startServer(setup(batchEnabled));
+            testServerBatchEnabled = batchEnabled;
+        }
+        this.testDriver = testServer.injector().instanceOf(ReadSideTestDriver.class);
+        this.reportRepository = testServer.injector().instanceOf(ReportRepository.class);
+    }
 
     @Test
     public void createAReportOnFirstEvent() throws InterruptedException, ExecutionException, TimeoutException {
@@ -61,7 +87,7 @@ public class ShoppingCartReportTest {
         assertNull(Await.result(reportRepository.findById(cartId)));
 
         Instant eventTime = Instant.now();
-        feed(new ShoppingCartEvent.ItemUpdated(cartId, "abc", 2, eventTime));
+        feed(cartId, new ShoppingCartEvent.ItemUpdated(cartId, "abc", 2, eventTime));
 
         ShoppingCartReport report = Await.result(reportRepository.findById(cartId));
         assertEquals("creation date is same as event time", eventTime, report.getCreationDate());
@@ -75,14 +101,14 @@ public class ShoppingCartReportTest {
         assertNull(Await.result(reportRepository.findById(cartId)));
 
         Instant eventTime = Instant.now();
-        feed(new ShoppingCartEvent.ItemUpdated(cartId, "abc", 1, eventTime));
+        feed(cartId, new ShoppingCartEvent.ItemUpdated(cartId, "abc", 1, eventTime));
 
         ShoppingCartReport report = Await.result(reportRepository.findById(cartId));
         assertEquals("creation date is same as event time", eventTime, report.getCreationDate());
         assertNull("checkout date is not set", report.getCheckoutDate());
 
         // emit one more event and it should not affect the report
-        feed(new ShoppingCartEvent.ItemUpdated(cartId, "abc", 2, eventTime.plusSeconds(30)));
+        feed(cartId, new ShoppingCartEvent.ItemUpdated(cartId, "abc", 2, eventTime.plusSeconds(30)));
 
         ShoppingCartReport updatedReport = Await.result(reportRepository.findById(cartId));
         assertEquals("creation date is same as first event time", eventTime, updatedReport.getCreationDate());
@@ -96,18 +122,38 @@ public class ShoppingCartReportTest {
         assertNull(Await.result(reportRepository.findById(cartId)));
 
         Instant eventTime = Instant.now();
-        feed(new ShoppingCartEvent.ItemUpdated(cartId, "abc", 1, eventTime));
+        feed(cartId, new ShoppingCartEvent.ItemUpdated(cartId, "abc", 1, eventTime));
 
         Instant checkeoutTime = Instant.now().plusSeconds(30);
-        feed(new ShoppingCartEvent.CheckedOut(cartId, checkeoutTime));
+        feed(cartId, new ShoppingCartEvent.CheckedOut(cartId, checkeoutTime));
 
         ShoppingCartReport report = Await.result(reportRepository.findById(cartId));
         assertEquals("creation date is same as event time", eventTime, report.getCreationDate());
         assertEquals("checkout date is same as checkout date", checkeoutTime, report.getCheckoutDate());
     }
 
+    @Test
+    public void cachedReportIsInvalidatedOnCheckout() throws InterruptedException, ExecutionException, TimeoutException {
+
+        String cartId = UUID.randomUUID().toString();
+        assertFalse(Await.result(reportRepository.findView(cartId)).isPresent());
+
+        Instant eventTime = Instant.now();
+        feed(cartId, new ShoppingCartEvent.ItemUpdated(cartId, "abc", 1, eventTime));
+
+        ShoppingCartReportView view = Await.result(reportRepository.findView(cartId)).get();
+        assertNull("checkout date is not set", view.getCheckoutDate());
+
+        Instant checkeoutTime = Instant.now().plusSeconds(30);
+        feed(cartId, new ShoppingCartEvent.CheckedOut(cartId, checkeoutTime));
+
+        ShoppingCartReportView updatedView = Await.result(reportRepository.findView(cartId)).get();
+        assertEquals("creation date is same as event time", eventTime, updatedView.getCreationDate());
+        assertEquals("checkout date is same as checkout date", checkeoutTime, updatedView.getCheckoutDate());
+    }
+
 
-    private void feed(ShoppingCartEvent event) throws InterruptedException, ExecutionException, TimeoutException {
-        Await.result(testDriver.feed(event, Offset.sequence(offset.getAndIncrement())));
+    private void feed(String cartId, ShoppingCartEvent event) throws InterruptedException, ExecutionException, TimeoutException {
+        Await.result(testDriver.feed(cartId, event, Offset.sequence(offset.getAndIncrement())));
     }
 }
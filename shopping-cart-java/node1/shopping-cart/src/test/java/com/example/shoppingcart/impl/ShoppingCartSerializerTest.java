@@ -0,0 +1,107 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import akka.testkit.javadsl.TestKit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class ShoppingCartSerializerTest {
+    private static ActorSystem system;
+    private static Serialization serialization;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create("ShoppingCartSerializerTest");
+        serialization = SerializationExtension.get(system);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void stateShouldUseTheBinarySerializer() {
+        assertThat(serialization.findSerializerFor(ShoppingCartState.EMPTY), instanceOf(ShoppingCartSerializer.class));
+    }
+
+    @Test
+    public void stateShouldRoundTrip() throws Exception {
+        ShoppingCartState state = ShoppingCartState.EMPTY
+            .updateItem("456", 300)
+            .updateItem("123", 2)
+            .updateItem("789", 1)
+            .checkout();
+
+        assertEquals(state, roundTrip(state));
+        assertEquals(4, ((ShoppingCartState) roundTrip(state)).getVersion());
+        assertEquals(ShoppingCartState.EMPTY, roundTrip(ShoppingCartState.EMPTY));
+    }
+
+    @Test
+    public void jsonSnapshotsShouldStillLoad() throws Exception {
+        Serializer json = serialization.serializerOf(system.settings().config().getString("akka.actor.serializers.lagom-json")).get();
+        byte[] legacy = "{\"items\":{\"456\":3,\"123\":2},\"checkedOut\":false}".getBytes(StandardCharsets.UTF_8);
+
+        Object state = ((SerializerWithStringManifest) json).fromBinary(legacy, ShoppingCartState.class.getName());
+
+        assertEquals(ShoppingCartState.EMPTY.updateItem("123", 2).updateItem("456", 3).getItems(), ((ShoppingCartState) state).getItems());
+        assertFalse(((ShoppingCartState) state).isCheckedOut());
+        assertEquals(0, ((ShoppingCartState) state).getVersion());
+    }
+
+    @Test
+    public void v1SnapshotsShouldStillLoad() throws Exception {
+        // format 1, not checked out, 1 item: "123" x 2
+        byte[] v1 = {1, 0, 1, 0, 3, '1', '2', '3', 2};
+
+        Object state = new ShoppingCartSerializer().fromBinary(v1, ShoppingCartSerializer.STATE_MANIFEST);
+
+        assertEquals(ShoppingCartState.EMPTY.updateItem("123", 2).getItems(), ((ShoppingCartState) state).getItems());
+        assertFalse(((ShoppingCartState) state).isCheckedOut());
+        assertEquals(0, ((ShoppingCartState) state).getVersion());
+    }
+
+    @Test
+    public void eventsShouldUseTheBinarySerializer() {
+        assertThat(serialization.findSerializerFor(new ShoppingCartEvent.CheckedOut("cart", Instant.now())), instanceOf(ShoppingCartSerializer.class));
+    }
+
+    @Test
+    public void eventsShouldRoundTrip() throws Exception {
+        ShoppingCartEvent itemUpdated = new ShoppingCartEvent.ItemUpdated("cart", "123", 2, Instant.ofEpochSecond(1571300000L, 123456789));
+        ShoppingCartEvent checkedOut = new ShoppingCartEvent.CheckedOut("cart", Instant.now());
+
+        assertEquals(itemUpdated, roundTrip(itemUpdated));
+        assertEquals(checkedOut, roundTrip(checkedOut));
+    }
+
+    @Test
+    public void jsonEventsShouldStillLoad() throws Exception {
+        Serializer json = serialization.serializerOf(system.settings().config().getString("akka.actor.serializers.lagom-json")).get();
+        byte[] legacy = "{\"shoppingCartId\":\"cart\",\"productId\":\"123\",\"quantity\":2,\"eventTime\":\"2019-10-17T08:13:20Z\"}".getBytes(StandardCharsets.UTF_8);
+
+        Object event = ((SerializerWithStringManifest) json).fromBinary(legacy, ShoppingCartEvent.ItemUpdated.class.getName());
+
+        assertEquals(new ShoppingCartEvent.ItemUpdated("cart", "123", 2, Instant.parse("2019-10-17T08:13:20Z")), event);
+    }
+
+    private Object roundTrip(Object o) throws Exception {
+        SerializerWithStringManifest serializer = (SerializerWithStringManifest) serialization.findSerializerFor(o);
+        return serializer.fromBinary(serializer.toBinary(o), serializer.manifest(o));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.shoppingcart.impl;
+
+import akka.pattern.AskTimeoutException;
+import com.example.shoppingcart.api.ShoppingCart;
+import com.example.shoppingcart.api.ShoppingCartLookup;
+import com.lightbend.lagom.javadsl.api.transport.NotFound;
+import com.lightbend.lagom.javadsl.api.transport.TransportErrorCode;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShoppingCartServiceImplTest {
+
+    @Test
+    public void ifNoneMatchShouldMatchTheSameVersion() {
+        assertTrue(ShoppingCartServiceImpl.matches("\"3\"", "\"3\""));
+        assertTrue(ShoppingCartServiceImpl.matches("W/\"3\"", "\"3\""));
+        assertTrue(ShoppingCartServiceImpl.matches("\"1\", \"3\"", "\"3\""));
+        assertTrue(ShoppingCartServiceImpl.matches("*", "\"3\""));
+    }
+
+    @Test
+    public void ifNoneMatchShouldNotMatchOtherVersions() {
+        assertFalse(ShoppingCartServiceImpl.matches("\"2\"", "\"3\""));
+        assertFalse(ShoppingCartServiceImpl.matches("\"31\", \"13\"", "\"3\""));
+        assertFalse(ShoppingCartServiceImpl.matches("3", "\"3\""));
+    }
+
+    @Test
+    public void projectedCartsShouldNotMatchTheEntityVersions() {
+        ShoppingCart cart = new ShoppingCart("123", Collections.emptyList(), false);
+        String entityEtag = ShoppingCartServiceImpl.etag(new VersionedCart(3, cart, false));
+        String projectedEtag = ShoppingCartServiceImpl.etag(new VersionedCart(3, cart, true));
+
+        assertFalse(ShoppingCartServiceImpl.matches(entityEtag, projectedEtag));
+        assertFalse(ShoppingCartServiceImpl.matches(projectedEtag, entityEtag));
+        assertTrue(ShoppingCartServiceImpl.matches(projectedEtag, projectedEtag));
+    }
+
+    @Test
+    public void batchGetErrorsShouldKeepTheirKind() {
+        assertEquals(Optional.of(ShoppingCartLookup.ErrorKind.NOT_FOUND),
+                ShoppingCartServiceImpl.lookupFailed("123", new NotFound("no cart")).errorKind);
+        assertEquals(Optional.of(ShoppingCartLookup.ErrorKind.BAD_REQUEST),
+                ShoppingCartServiceImpl.lookupFailed("123", new CompletionException(new ShoppingCartException("bad"))).errorKind);
+        assertEquals(Optional.of(ShoppingCartLookup.ErrorKind.OVERLOADED),
+                ShoppingCartServiceImpl.lookupFailed("123", new TransportException(TransportErrorCode.ServiceUnavailable, "busy")).errorKind);
+        assertEquals(Optional.of(ShoppingCartLookup.ErrorKind.TIMEOUT),
+                ShoppingCartServiceImpl.lookupFailed("123", new AskTimeoutException("timeout")).errorKind);
+        assertEquals(Optional.of(ShoppingCartLookup.ErrorKind.INTERNAL),
+                ShoppingCartServiceImpl.lookupFailed("123", new IllegalStateException()).errorKind);
+    }
+}
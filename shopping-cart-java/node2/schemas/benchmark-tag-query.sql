@@ -0,0 +1,58 @@
+-- Measures the cost of the queries the read-side runs against the journal as the journal
+-- grows. Run it against a scratch database created with shopping-cart-partitioned.sql (or
+-- shopping-cart.sql, to compare), once per step, each run adds :rows synthetic events:
+--
+--   for i in 1 2 3 4 5; do
+--     psql -h localhost -U shopping_cart -d shopping_cart_bench -v rows=50000000 -f benchmark-tag-query.sql
+--   done
+--
+-- The events are spread over the 10 tags like the shopping cart events, 5 events per cart.
+-- Compare the execution time and the shared buffers of the plans from one run to the
+-- next: they should stay about the same while the journal goes from 50 to 250 million
+-- events.
+
+\set ON_ERROR_STOP on
+\timing on
+
+SELECT COALESCE(MAX(ordering), 0) AS base FROM journal \gset
+
+-- Only needed with the partitioned schema
+SELECT create_journal_partitions((:rows / 10000000)::int + 2)
+  WHERE to_regproc('create_journal_partitions') IS NOT NULL;
+
+INSERT INTO journal (persistence_id, sequence_number, tags, message)
+  SELECT 'ShoppingCartEntitybench-' || (i / 5), i % 5 + 1, 'ShoppingCartEvent' || (i % 10), '\x00'::bytea
+  FROM generate_series(:base, :base + :rows - 1) AS i;
+
+VACUUM ANALYZE journal;
+
+SELECT MAX(ordering) AS head FROM journal \gset
+SELECT COUNT(*) AS events FROM journal;
+
+-- The highest ordering without gaps, as queried by the journal sequence actor
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ordering FROM journal WHERE ordering > :head - 10000 ORDER BY ordering LIMIT 10000;
+
+-- The tag query of a read-side that's caught up
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ordering, persistence_id, sequence_number, message FROM journal
+  WHERE tags LIKE '%ShoppingCartEvent3%' AND ordering > :head - 5000 AND ordering <= :head
+  ORDER BY ordering LIMIT 500;
+
+-- The tag query of a read-side that's 10 million events behind
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ordering, persistence_id, sequence_number, message FROM journal
+  WHERE tags LIKE '%ShoppingCartEvent3%' AND ordering > :head - 10000000 AND ordering <= :head
+  ORDER BY ordering LIMIT 500;
+
+-- The tag query of a tag without events
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ordering, persistence_id, sequence_number, message FROM journal
+  WHERE tags LIKE '%ShoppingCartEventX%' AND ordering > :head - 10000000 AND ordering <= :head
+  ORDER BY ordering LIMIT 500;
+
+-- The recovery of an entity
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT ordering, persistence_id, sequence_number, message FROM journal
+  WHERE persistence_id = 'ShoppingCartEntitybench-' || (:head / 10) AND sequence_number >= 1
+  ORDER BY sequence_number;
@@ -0,0 +1,20 @@
+-- Notifies the tags of the events inserted in the journal, see NotifyingJdbcReadJournal.
+-- Apply it once the journal table exists, with shopping-cart.sql or with
+-- shopping-cart-partitioned.sql.
+--
+-- Notifications are delivered when the transaction commits, and notifications with the
+-- same payload in a transaction are delivered once, so a batch of journal inserts sends
+-- one notification per tag.
+
+CREATE OR REPLACE FUNCTION notify_journal_insert() RETURNS TRIGGER AS $$
+BEGIN
+  IF NEW.tags IS NOT NULL THEN
+    PERFORM pg_notify('journal_insert', NEW.tags);
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS journal_notify ON journal;
+CREATE TRIGGER journal_notify AFTER INSERT ON journal
+  FOR EACH ROW EXECUTE PROCEDURE notify_journal_insert();
@@ -0,0 +1,125 @@
+-- A variant of shopping-cart.sql for large journals, requires PostgreSQL 12 or later.
+--
+-- The journal is partitioned by ranges of 10 million ordering values. The read-side tag
+-- queries only ask for recent orderings, so they only touch the newest partitions and
+-- their indexes stay small whatever the size of the journal. Old partitions can be
+-- detached and archived without touching the others.
+--
+-- A unique index of a partitioned table must contain the partition key, so the journal
+-- can't enforce the uniqueness of (persistence_id, sequence_number) itself. Its rows are
+-- also inserted by trigger into journal_sequence_numbers, which isn't partitioned and
+-- whose primary key makes a second write of the same event fail, whatever partition
+-- each write lands in. The rows stay there when a partition is detached, so the events
+-- of an archived partition can't be written again either.
+--
+-- Partitions are created ahead of the writes by create_journal_partitions(), which must
+-- be run regularly (from cron or pg_cron) so that there's always a partition ahead:
+-- there's no default partition and a write beyond the last partition fails.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+CREATE TABLE IF NOT EXISTS journal (
+  ordering BIGSERIAL,
+  persistence_id VARCHAR(255) NOT NULL,
+  sequence_number BIGINT NOT NULL,
+  deleted BOOLEAN DEFAULT FALSE,
+  tags VARCHAR(255) DEFAULT NULL,
+  message BYTEA NOT NULL,
+  PRIMARY KEY(ordering)
+) PARTITION BY RANGE (ordering);
+
+-- The JDBC journal matches tags with LIKE '%tag%', which a btree index can't serve. The
+-- primary key serves the tag queries of a read-side that's caught up, it scans the
+-- recent orderings in order and stops once it has a batch. This index serves the ones
+-- of a read-side that's far behind, or of a tag that's rare, by looking up the rows of
+-- the tag within the ordering range.
+CREATE INDEX IF NOT EXISTS journal_tags_ordering_idx ON journal USING gin (tags gin_trgm_ops, ordering);
+
+CREATE TABLE IF NOT EXISTS journal_sequence_numbers (
+  persistence_id VARCHAR(255) NOT NULL,
+  sequence_number BIGINT NOT NULL,
+  PRIMARY KEY(persistence_id, sequence_number)
+);
+
+-- Statement triggers, as row triggers on a partitioned table can only be AFTER ones before
+-- PostgreSQL 13 and the batch of a write is a single statement. A duplicate fails the
+-- whole insert, journal rows included.
+CREATE OR REPLACE FUNCTION journal_sequence_numbers_insert()
+RETURNS TRIGGER AS $$
+BEGIN
+  INSERT INTO journal_sequence_numbers (persistence_id, sequence_number)
+    SELECT persistence_id, sequence_number FROM inserted;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Deleted events, by the journal or by the compaction, may be written again.
+CREATE OR REPLACE FUNCTION journal_sequence_numbers_delete()
+RETURNS TRIGGER AS $$
+BEGIN
+  DELETE FROM journal_sequence_numbers s USING deleted d
+    WHERE s.persistence_id = d.persistence_id AND s.sequence_number = d.sequence_number;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS journal_sequence_numbers_insert ON journal;
+CREATE TRIGGER journal_sequence_numbers_insert AFTER INSERT ON journal
+  REFERENCING NEW TABLE AS inserted
+  FOR EACH STATEMENT EXECUTE FUNCTION journal_sequence_numbers_insert();
+
+DROP TRIGGER IF EXISTS journal_sequence_numbers_delete ON journal;
+CREATE TRIGGER journal_sequence_numbers_delete AFTER DELETE ON journal
+  REFERENCING OLD TABLE AS deleted
+  FOR EACH STATEMENT EXECUTE FUNCTION journal_sequence_numbers_delete();
+
+CREATE OR REPLACE FUNCTION create_journal_partitions(ahead INTEGER DEFAULT 2, from_ordering BIGINT DEFAULT NULL)
+RETURNS VOID AS $$
+DECLARE
+  partition_size CONSTANT BIGINT := 10000000;
+  current_ordering BIGINT;
+  partition_name TEXT;
+BEGIN
+  SELECT last_value INTO current_ordering FROM journal_ordering_seq;
+  FOR i IN (COALESCE(from_ordering, current_ordering) / partition_size)..(current_ordering / partition_size + ahead) LOOP
+    partition_name := format('journal_p%s', i);
+    IF to_regclass(partition_name) IS NULL THEN
+      EXECUTE format('CREATE TABLE %I PARTITION OF journal FOR VALUES FROM (%s) TO (%s)',
+        partition_name, i * partition_size, (i + 1) * partition_size);
+      EXECUTE format('CREATE INDEX %I ON %I (persistence_id, sequence_number)',
+        partition_name || '_persistence_id_idx', partition_name);
+    END IF;
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_journal_partitions();
+
+-- Snapshots are only ever read by persistence id, so they're spread by its hash.
+CREATE TABLE IF NOT EXISTS snapshot (
+  persistence_id VARCHAR(255) NOT NULL,
+  sequence_number BIGINT NOT NULL,
+  created BIGINT NOT NULL,
+  snapshot BYTEA NOT NULL,
+  PRIMARY KEY(persistence_id, sequence_number)
+) PARTITION BY HASH (persistence_id);
+
+DO $$
+BEGIN
+  FOR i IN 0..15 LOOP
+    EXECUTE format('CREATE TABLE IF NOT EXISTS snapshot_p%s PARTITION OF snapshot FOR VALUES WITH (MODULUS 16, REMAINDER %s)', i, i);
+  END LOOP;
+END;
+$$;
+
+CREATE TABLE IF NOT EXISTS read_side_offsets (
+  read_side_id VARCHAR(255), tag VARCHAR(255),
+  sequence_offset bigint, time_uuid_offset char(36),
+  PRIMARY KEY (read_side_id, tag)
+);
+
+-- The carts whose journal JournalCompaction has compacted, created by the compaction.
+CREATE TABLE IF NOT EXISTS journal_compaction (
+  cart_id VARCHAR(255) PRIMARY KEY
+);
@@ -0,0 +1,54 @@
+package com.example.shoppingcart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * How far a read-side processor is behind the journal for one tag.
+ */
+@Value
+@JsonDeserialize
+public final class ReadSideLagView {
+    /**
+     * The ID of the read-side processor, eg shopping-cart-report.
+     */
+    public final String readSideId;
+
+    /**
+     * The event tag processed.
+     */
+    public final String tag;
+
+    /**
+     * The journal ordering of the last event processed.
+     */
+    public final long offset;
+
+    /**
+     * The highest journal ordering, of any tag.
+     */
+    public final long journalOrdering;
+
+    /**
+     * The number of journal orderings from the first event left to process to the highest
+     * one, an upper bound of the number of events left to process, 0 when there's none.
+     */
+    public final long lagEvents;
+
+    /**
+     * The age of the oldest event left to process, in milliseconds, 0 when there's none.
+     */
+    public final long lagMillis;
+
+    @JsonCreator
+    public ReadSideLagView(String readSideId, String tag, long offset, long journalOrdering, long lagEvents, long lagMillis) {
+        this.readSideId = Preconditions.checkNotNull(readSideId, "readSideId");
+        this.tag = Preconditions.checkNotNull(tag, "tag");
+        this.offset = offset;
+        this.journalOrdering = journalOrdering;
+        this.lagEvents = lagEvents;
+        this.lagMillis = lagMillis;
+    }
+}
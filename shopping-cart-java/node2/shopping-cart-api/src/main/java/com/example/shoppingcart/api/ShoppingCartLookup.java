@@ -0,0 +1,68 @@
+package com.example.shoppingcart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+import java.util.Optional;
+
+/**
+ * The result of looking up one shopping cart of a batch get: either the cart, or
+ * the reason it couldn't be read.
+ */
+@Value
+@JsonDeserialize
+public final class ShoppingCartLookup {
+    /**
+     * The ID of the shopping cart.
+     */
+    public final String id;
+
+    /**
+     * The shopping cart, if it could be read.
+     */
+    public final Optional<ShoppingCart> cart;
+
+    /**
+     * Why the shopping cart couldn't be read.
+     */
+    public final Optional<String> error;
+
+    /**
+     * The kind of error, the one a get of this shopping cart alone would have failed with.
+     */
+    public final Optional<ErrorKind> errorKind;
+
+    /**
+     * The kinds of errors of a batch get.
+     */
+    public enum ErrorKind {
+        /** The shopping cart doesn't exist, a 404 for a get. */
+        NOT_FOUND,
+        /** The service is shedding load, a 503 for a get, retry later. */
+        OVERLOADED,
+        /** The shopping cart didn't reply in time, a 503 for a get, retry later. */
+        TIMEOUT,
+        /** The request for this shopping cart is invalid, a 400 for a get. */
+        BAD_REQUEST,
+        /** Any other error. */
+        INTERNAL
+    }
+
+    @JsonCreator
+    public ShoppingCartLookup(String id, Optional<ShoppingCart> cart, Optional<String> error, Optional<ErrorKind> errorKind) {
+        this.id = Preconditions.checkNotNull(id, "id");
+        this.cart = Preconditions.checkNotNull(cart, "cart");
+        this.error = Preconditions.checkNotNull(error, "error");
+        this.errorKind = Preconditions.checkNotNull(errorKind, "errorKind");
+    }
+
+    public static ShoppingCartLookup found(ShoppingCart cart) {
+        return new ShoppingCartLookup(cart.getId(), Optional.of(cart), Optional.empty(), Optional.empty());
+    }
+
+    public static ShoppingCartLookup failed(String id, ErrorKind errorKind, String error) {
+        return new ShoppingCartLookup(id, Optional.empty(), Optional.of(error), Optional.of(errorKind));
+    }
+}
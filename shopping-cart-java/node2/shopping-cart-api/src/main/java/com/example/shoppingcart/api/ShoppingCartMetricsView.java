@@ -0,0 +1,37 @@
+package com.example.shoppingcart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+import org.pcollections.PMap;
+import org.pcollections.PSequence;
+
+/**
+ * The metrics of a shopping cart service node.
+ */
+@Value
+@JsonDeserialize
+public final class ShoppingCartMetricsView {
+    /**
+     * The latency of each command phase.
+     */
+    public final PSequence<LatencyView> latencies;
+
+    /**
+     * The number of rejected commands, by rejection message.
+     */
+    public final PMap<String, Long> rejections;
+
+    /**
+     * Other counters and gauges, by name.
+     */
+    public final PMap<String, Long> gauges;
+
+    @JsonCreator
+    public ShoppingCartMetricsView(PSequence<LatencyView> latencies, PMap<String, Long> rejections, PMap<String, Long> gauges) {
+        this.latencies = Preconditions.checkNotNull(latencies, "latencies");
+        this.rejections = Preconditions.checkNotNull(rejections, "rejections");
+        this.gauges = Preconditions.checkNotNull(gauges, "gauges");
+    }
+}
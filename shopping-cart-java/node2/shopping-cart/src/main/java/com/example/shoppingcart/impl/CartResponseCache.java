@@ -0,0 +1,56 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.ShoppingCart;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The {@link ShoppingCart} responses last built for each cart, along with the version of
+ * the state they were built from.
+ * <p>
+ * A response is reused for as long as the cart state has the same version, any event
+ * applied to the cart bumps the version so a changed cart is always converted again.
+ */
+class CartResponseCache {
+
+    private final Cache<String, VersionedCart> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CartResponseCache(long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    VersionedCart get(String id, ShoppingCartState state, Function<ShoppingCartState, ShoppingCart> convert) {
+        VersionedCart cached = cache.getIfPresent(id);
+        if (cached != null && cached.getVersion() == state.getVersion()) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        VersionedCart converted = new VersionedCart(state.getVersion(), convert.apply(state), false);
+        cache.put(id, converted);
+        return converted;
+    }
+
+    void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
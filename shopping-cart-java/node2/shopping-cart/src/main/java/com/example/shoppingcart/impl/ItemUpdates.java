@@ -0,0 +1,53 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.ShoppingCartItem;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalescing of item updates, see {@link #coalesce}.
+ */
+final class ItemUpdates {
+
+    private ItemUpdates() {
+    }
+
+    /**
+     * Coalesce a valid sequence of item updates into an equivalent shorter one, where
+     * only the last quantity of each product is kept.
+     * <p>
+     * A product whose last quantity is zero keeps its last non zero quantity in front of
+     * it, so that removing an item added earlier in the sequence is still valid when the
+     * cart didn't hold it before. A sequence with a negative quantity is returned as it
+     * is, so that it's rejected the same way.
+     */
+    static PSequence<ShoppingCartItem> coalesce(List<ShoppingCartItem> items) {
+        if (items.stream().anyMatch(item -> item.getQuantity() < 0)) {
+            return TreePVector.from(items);
+        }
+
+        Map<String, ShoppingCartItem> last = new LinkedHashMap<>();
+        Map<String, ShoppingCartItem> lastAdded = new LinkedHashMap<>();
+        for (ShoppingCartItem item : items) {
+            last.remove(item.getProductId());
+            last.put(item.getProductId(), item);
+            if (item.getQuantity() != 0) {
+                lastAdded.put(item.getProductId(), item);
+            }
+        }
+
+        PSequence<ShoppingCartItem> coalesced = TreePVector.empty();
+        for (ShoppingCartItem item : last.values()) {
+            ShoppingCartItem added = lastAdded.get(item.getProductId());
+            if (item.getQuantity() == 0 && added != null) {
+                coalesced = coalesced.plus(added);
+            }
+            coalesced = coalesced.plus(item);
+        }
+        return coalesced;
+    }
+}
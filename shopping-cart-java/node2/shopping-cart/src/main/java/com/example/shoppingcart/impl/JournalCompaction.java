@@ -0,0 +1,408 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.cluster.singleton.ClusterSingletonManager;
+import akka.cluster.singleton.ClusterSingletonManagerSettings;
+import akka.persistence.PersistentRepr;
+import akka.persistence.serialization.Snapshot;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.RateLimiter;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Compacts the journal of checked-out carts: once every read-side in
+ * {@code shopping-cart.compaction.read-sides} has processed all the events of a cart, the
+ * final state of the cart is saved as a snapshot and the events that don't make a
+ * difference to it anymore are deleted.
+ * <p>
+ * A checked-out cart doesn't change anymore, so the snapshot is its state for good and
+ * the entity recovers from it without replaying anything. The events kept are the ones a
+ * read-side replaying the journal still needs, see {@link #eventsToKeep(List)}: the
+ * first one, which created the cart, the last update of each product, and the checkout,
+ * which is the last event. The JDBC journal finds the highest sequence number of an
+ * entity in its events, an entity that didn't find any would persist its next events
+ * over the snapshot. The carts to compact are the ones the {@link ShoppingCartReport}
+ * has seen checked out.
+ * <p>
+ * The journal of a checked-out cart doesn't change anymore either, so once a cart has
+ * been compacted, or found with no event to delete, it's recorded in
+ * {@code journal_compaction} and never looked at again. Only the carts whose read-sides
+ * hadn't caught up yet are looked at again by the next pass.
+ * <p>
+ * Compaction runs in the background on one node of the cluster, in a cluster singleton,
+ * going through the carts in batches of {@code batch-size}, compacting at most
+ * {@code carts-per-second}, and starts over every {@code interval}. It's off by default:
+ * a read-side added later only sees the events kept of the compacted carts.
+ */
+@Singleton
+public class JournalCompaction {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalCompaction.class);
+
+    /**
+     * Lagom uses the simple class name of the entity as the prefix of its persistence ids.
+     */
+    private static final String PERSISTENCE_ID_PREFIX = ShoppingCartEntity.class.getSimpleName();
+
+    private static final String CREATE_COMPACTED =
+            "CREATE TABLE IF NOT EXISTS \"journal_compaction\" (\"cart_id\" VARCHAR(255) PRIMARY KEY)";
+    private static final String FIND_CHECKED_OUT =
+            "SELECT r.id FROM ShoppingCartReport r LEFT JOIN \"journal_compaction\" c ON c.\"cart_id\" = r.id"
+                    + " WHERE r.checkoutDate IS NOT NULL AND c.\"cart_id\" IS NULL AND r.id > ? ORDER BY r.id LIMIT ?";
+    private static final String INSERT_COMPACTED =
+            "INSERT INTO \"journal_compaction\" (\"cart_id\") VALUES (?) ON CONFLICT DO NOTHING";
+    private static final String FIND_OFFSET =
+            "SELECT \"sequence_offset\" FROM \"read_side_offsets\" WHERE \"read_side_id\" = ? AND \"tag\" = ?";
+    private static final String DELETE_SNAPSHOTS =
+            "DELETE FROM \"snapshot\" WHERE \"persistence_id\" = ?";
+    private static final String INSERT_SNAPSHOT =
+            "INSERT INTO \"snapshot\" (\"persistence_id\", \"sequence_number\", \"created\", \"snapshot\") VALUES (?, ?, ?, ?)";
+
+    private final String findEventsQuery;
+    private final String deleteEventQuery;
+    private final Supplier<DataSource> dataSource;
+    private final Serialization serialization;
+    private final List<String> readSides;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder compacted = new LongAdder();
+    private final LongAdder eventsDeleted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+
+    private String lastCartId = "";
+
+    @Inject
+    public JournalCompaction(ActorSystem system, Config config, ShoppingCartMetrics metrics) {
+        Config compaction = config.getConfig("shopping-cart.compaction");
+        String jndiName = config.getString("db.default.jndiName");
+        JournalTable journal = JournalTable.of(config.getConfig("jdbc-read-journal"));
+        this.findEventsQuery = "SELECT " + journal.sequenceNumber + ", " + journal.ordering + ", " + journal.tags + ", " + journal.message
+                + " FROM " + journal.table + " WHERE " + journal.persistenceId + " = ? ORDER BY " + journal.sequenceNumber;
+        this.deleteEventQuery = "DELETE FROM " + journal.table + " WHERE " + journal.persistenceId + " = ? AND " + journal.sequenceNumber + " = ?";
+        this.dataSource = Suppliers.memoize(() -> ReportQueries.lookup(jndiName))::get;
+        this.serialization = SerializationExtension.get(system);
+        this.readSides = compaction.getStringList("read-sides");
+        this.batchSize = compaction.getInt("batch-size");
+        this.rateLimiter = RateLimiter.create(compaction.getDouble("carts-per-second"));
+
+        if (compaction.getBoolean("enabled")) {
+            metrics.registerGauge("compaction.carts-scanned", scanned::sum);
+            metrics.registerGauge("compaction.carts-compacted", compacted::sum);
+            metrics.registerGauge("compaction.events-deleted", eventsDeleted::sum);
+            metrics.registerGauge("compaction.failures", failures::sum);
+            metrics.registerGauge("compaction.passes", passes::sum);
+
+            Duration interval = compaction.getDuration("interval");
+            Props compactor = Props.create(Compactor.class, () -> new Compactor(this, interval))
+                    .withDispatcher("shopping-cart.compaction.dispatcher");
+            system.actorOf(ClusterSingletonManager.props(compactor, PoisonPill.getInstance(),
+                    ClusterSingletonManagerSettings.create(system)), "journal-compaction");
+        }
+    }
+
+    /**
+     * Create the table recording the compacted carts, if it doesn't exist yet.
+     */
+    void createTable() throws SQLException {
+        try (Connection connection = dataSource.get().getConnection();
+             PreparedStatement statement = connection.prepareStatement(CREATE_COMPACTED)) {
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Compact the next batch of checked-out carts not compacted yet, blocking until it's done.
+     *
+     * @return the number of carts looked at, 0 once all the carts have been looked at,
+     * the next call then starts over.
+     */
+    int compactBatch() throws SQLException {
+        List<String> cartIds = new ArrayList<>(batchSize);
+        try (Connection connection = dataSource.get().getConnection();
+             PreparedStatement statement = connection.prepareStatement(FIND_CHECKED_OUT)) {
+            statement.setString(1, lastCartId);
+            statement.setInt(2, batchSize);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    cartIds.add(rs.getString(1));
+                }
+            }
+        }
+
+        if (cartIds.isEmpty()) {
+            lastCartId = "";
+            passes.increment();
+            return 0;
+        }
+
+        for (String cartId : cartIds) {
+            scanned.increment();
+            try {
+                compact(cartId);
+            } catch (SQLException | RuntimeException e) {
+                failures.increment();
+                log.warn("Couldn't compact the journal of cart {}", cartId, e);
+            }
+            lastCartId = cartId;
+        }
+        return cartIds.size();
+    }
+
+    /**
+     * Compact the journal of a cart, once its events have been read and found to be
+     * processed by all the read-sides. Only the carts actually compacted wait for the rate
+     * limiter, the others are either done or left for the next pass.
+     */
+    private void compact(String cartId) throws SQLException {
+        String persistenceId = PERSISTENCE_ID_PREFIX + cartId;
+        try (Connection connection = dataSource.get().getConnection()) {
+            connection.setAutoCommit(true);
+            List<JournalRow> rows = findEvents(connection, persistenceId);
+            List<Object> events = new ArrayList<>(rows.size());
+            for (JournalRow row : rows) {
+                events.add(row.payload(serialization));
+            }
+            ShoppingCartState state = ShoppingCartState.EMPTY;
+            for (Object event : events) {
+                state = apply(state, event);
+            }
+            if (!state.isCheckedOut()) {
+                // the journal doesn't show the checkout the report has seen, left for the next pass
+                return;
+            }
+            Set<Integer> keep = eventsToKeep(events);
+            if (keep.size() == rows.size()) {
+                markCompacted(connection, cartId);
+                return;
+            }
+            if (!processed(connection, rows)) {
+                return;
+            }
+
+            rateLimiter.acquire();
+            connection.setAutoCommit(false);
+            try {
+                long lastSequenceNr = rows.get(rows.size() - 1).sequenceNr;
+                saveSnapshot(connection, persistenceId, lastSequenceNr, state);
+                try (PreparedStatement statement = connection.prepareStatement(deleteEventQuery)) {
+                    for (int i = 0; i < rows.size(); i++) {
+                        if (!keep.contains(i)) {
+                            statement.setString(1, persistenceId);
+                            statement.setLong(2, rows.get(i).sequenceNr);
+                            statement.addBatch();
+                        }
+                    }
+                    for (int deleted : statement.executeBatch()) {
+                        eventsDeleted.add(deleted);
+                    }
+                }
+                markCompacted(connection, cartId);
+                connection.commit();
+                compacted.increment();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void markCompacted(Connection connection, String cartId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_COMPACTED)) {
+            statement.setString(1, cartId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * The indexes of the events a read-side replaying the journal of the cart still needs:
+     * the first one, from which {@link ShoppingCartReportProcessor} takes the creation date,
+     * the last update of each product, which replayed in order give the final items, as
+     * {@link ShoppingCartContentsProcessor} needs them, and the last one.
+     */
+    static Set<Integer> eventsToKeep(List<?> events) {
+        Set<Integer> keep = new TreeSet<>();
+        if (events.isEmpty()) {
+            return keep;
+        }
+        keep.add(0);
+        keep.add(events.size() - 1);
+        Set<String> products = new HashSet<>();
+        for (int i = events.size() - 1; i >= 0; i--) {
+            Object event = events.get(i);
+            if (event instanceof ShoppingCartEvent.ItemUpdated && products.add(((ShoppingCartEvent.ItemUpdated) event).getProductId())) {
+                keep.add(i);
+            }
+        }
+        return keep;
+    }
+
+    private List<JournalRow> findEvents(Connection connection, String persistenceId) throws SQLException {
+        List<JournalRow> events = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(findEventsQuery)) {
+            statement.setString(1, persistenceId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    events.add(new JournalRow(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getBytes(4)));
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Whether all the read-sides have processed all the events, each tag has its own offset.
+     */
+    private boolean processed(Connection connection, List<JournalRow> events) throws SQLException {
+        Map<String, Long> lastOrderingByTag = new HashMap<>();
+        for (JournalRow event : events) {
+            if (event.tags != null) {
+                for (String tag : event.tags.split(",")) {
+                    lastOrderingByTag.merge(tag, event.ordering, Math::max);
+                }
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(FIND_OFFSET)) {
+            for (String readSide : readSides) {
+                for (Map.Entry<String, Long> tag : lastOrderingByTag.entrySet()) {
+                    statement.setString(1, readSide);
+                    statement.setString(2, tag.getKey());
+                    try (ResultSet rs = statement.executeQuery()) {
+                        if (!rs.next() || rs.getLong(1) < tag.getValue()) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void saveSnapshot(Connection connection, String persistenceId, long sequenceNr, ShoppingCartState state) throws SQLException {
+        // the JDBC snapshot store keeps the state wrapped the way Akka persistence serializes snapshots
+        byte[] snapshot = serialization.serialize(new Snapshot(state)).get();
+        try (PreparedStatement statement = connection.prepareStatement(DELETE_SNAPSHOTS)) {
+            statement.setString(1, persistenceId);
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SNAPSHOT)) {
+            statement.setString(1, persistenceId);
+            statement.setLong(2, sequenceNr);
+            statement.setLong(3, System.currentTimeMillis());
+            statement.setBytes(4, snapshot);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Apply an event the way the event handlers of {@link ShoppingCartEntity} do.
+     */
+    private static ShoppingCartState apply(ShoppingCartState state, Object event) {
+        if (event instanceof ShoppingCartEvent.ItemUpdated) {
+            ShoppingCartEvent.ItemUpdated itemUpdated = (ShoppingCartEvent.ItemUpdated) event;
+            return state.updateItem(itemUpdated.getProductId(), itemUpdated.getQuantity());
+        } else if (event instanceof ShoppingCartEvent.CheckedOut) {
+            return state.checkout();
+        } else {
+            throw new IllegalStateException("Unexpected event " + event);
+        }
+    }
+
+    private static final class JournalRow {
+        final long sequenceNr;
+        final long ordering;
+        final String tags;
+        final byte[] message;
+
+        JournalRow(long sequenceNr, long ordering, String tags, byte[] message) {
+            this.sequenceNr = sequenceNr;
+            this.ordering = ordering;
+            this.tags = tags;
+            this.message = message;
+        }
+
+        Object payload(Serialization serialization) {
+            return serialization.deserialize(message, PersistentRepr.class).get().payload();
+        }
+    }
+
+    private enum Tick {
+        INSTANCE
+    }
+
+    /**
+     * The cluster singleton running the compaction, a batch per tick. It runs on its own
+     * dispatcher since the compaction blocks on JDBC calls and on the rate limiter.
+     */
+    static class Compactor extends AbstractActor {
+
+        private final JournalCompaction compaction;
+        private final FiniteDuration interval;
+        private boolean tableCreated = false;
+
+        Compactor(JournalCompaction compaction, Duration interval) {
+            this.compaction = compaction;
+            this.interval = FiniteDuration.create(interval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void preStart() {
+            scheduleTick(interval);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchEquals(Tick.INSTANCE, tick -> {
+                        int carts;
+                        try {
+                            if (!tableCreated) {
+                                compaction.createTable();
+                                tableCreated = true;
+                            }
+                            carts = compaction.compactBatch();
+                        } catch (SQLException e) {
+                            log.warn("Journal compaction failed, retrying in {}", interval, e);
+                            carts = 0;
+                        }
+                        // keep going until all the carts have been looked at, then pause
+                        scheduleTick(carts > 0 ? FiniteDuration.create(0, TimeUnit.SECONDS) : interval);
+                    })
+                    .build();
+        }
+
+        private void scheduleTick(FiniteDuration delay) {
+            getContext().getSystem().scheduler().scheduleOnce(delay, getSelf(), Tick.INSTANCE,
+                    getContext().getDispatcher(), getSelf());
+        }
+    }
+}
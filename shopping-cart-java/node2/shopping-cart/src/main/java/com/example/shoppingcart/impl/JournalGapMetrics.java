@@ -0,0 +1,35 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.scaladsl.ReadJournal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reports the gaps in the journal orderings seen by the tag queries of the read journal,
+ * see {@link JournalGapTracker}, along with the other metrics.
+ */
+@Singleton
+public class JournalGapMetrics {
+
+    @Inject
+    public JournalGapMetrics(ActorSystem system, ShoppingCartMetrics metrics) {
+        ReadJournal journal = PersistenceQuery.get(system).readJournalFor("jdbc-read-journal");
+        if (journal instanceof NotifyingJdbcReadJournal) {
+            JournalGapMonitor gaps = ((NotifyingJdbcReadJournal) journal).gaps();
+            registerGauge(metrics, gaps, "journal.gaps.seen", JournalGapTracker::seen);
+            registerGauge(metrics, gaps, "journal.gaps.resolved", JournalGapTracker::resolved);
+            registerGauge(metrics, gaps, "journal.gaps.abandoned", JournalGapTracker::abandoned);
+            registerGauge(metrics, gaps, "journal.gaps.pending", JournalGapTracker::pending);
+        }
+    }
+
+    private static void registerGauge(ShoppingCartMetrics metrics, JournalGapMonitor gaps, String name,
+                                      ToLongFunction<JournalGapTracker> gauge) {
+        // the tracker is created once the monitor has read the journal
+        metrics.registerGauge(name, () -> gaps.tracker() == null ? 0 : gauge.applyAsLong(gaps.tracker()));
+    }
+}
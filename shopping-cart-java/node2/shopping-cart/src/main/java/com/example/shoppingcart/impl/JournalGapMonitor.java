@@ -0,0 +1,190 @@
+package com.example.shoppingcart.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Follows the orderings of the journal with a {@link JournalGapTracker}, and wakes up the
+ * tag queries once the events they've been notified of can be read.
+ * <p>
+ * It looks for new orderings every {@code poll-interval}, or right away when the
+ * {@link JournalNotificationListener} reports inserts. Each time, it queries the
+ * orderings past the highest one seen so far and the orderings of the open gaps, and
+ * nothing else. When the readable ordering moves up, it wakes up the tags that were
+ * notified, or all of them when a gap was filled or given up on, since the tag of the
+ * events held back behind the gap isn't known.
+ * <p>
+ * When it starts it considers the journal complete up to {@code batch-size} orderings
+ * below the highest one, rather than scanning the whole journal.
+ */
+class JournalGapMonitor implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalGapMonitor.class);
+
+    /**
+     * Queued when inserts may have been missed, for example while the listener reconnects.
+     */
+    private static final String ALL_TAGS = "";
+
+    private final String findMaxQuery;
+    private final String findNextQuery;
+    private final String findInGapQuery;
+    private final Supplier<DataSource> dataSource;
+    private final int batchSize;
+    private final Duration giveUpAfter;
+    private final Duration pollInterval;
+    private final JournalWakeups wakeups;
+    private final BlockingQueue<String> inserted = new LinkedBlockingQueue<>();
+
+    private volatile JournalGapTracker tracker;
+    private volatile boolean running = true;
+
+    JournalGapMonitor(JournalTable journal, Supplier<DataSource> dataSource, int batchSize, Duration giveUpAfter,
+                      Duration pollInterval, JournalWakeups wakeups) {
+        this.findMaxQuery = "SELECT MAX(" + journal.ordering + ") FROM " + journal.table;
+        this.findNextQuery = "SELECT " + journal.ordering + " FROM " + journal.table
+                + " WHERE " + journal.ordering + " > ? ORDER BY " + journal.ordering + " LIMIT ?";
+        this.findInGapQuery = "SELECT " + journal.ordering + " FROM " + journal.table
+                + " WHERE " + journal.ordering + " BETWEEN ? AND ?";
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.giveUpAfter = giveUpAfter;
+        this.pollInterval = pollInterval;
+        this.wakeups = wakeups;
+    }
+
+    void start() {
+        // refresh right away rather than after the first poll interval
+        missedInserts();
+        Thread thread = new Thread(this, "journal-gap-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Events with the given tag have been inserted.
+     */
+    void inserted(String tag) {
+        inserted.add(tag);
+    }
+
+    /**
+     * Events may have been inserted without being reported.
+     */
+    void missedInserts() {
+        inserted.add(ALL_TAGS);
+    }
+
+    /**
+     * The highest ordering the tag queries can read up to, or -1 until the monitor started.
+     */
+    long safeMax() {
+        JournalGapTracker current = tracker;
+        return current == null ? -1 : current.safeMax();
+    }
+
+    /**
+     * The tracker, once the monitor started.
+     */
+    JournalGapTracker tracker() {
+        return tracker;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Set<String> tags = new HashSet<>();
+                String first = inserted.poll(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    tags.add(first);
+                    inserted.drainTo(tags);
+                }
+                try {
+                    refresh(tags);
+                } catch (SQLException | RuntimeException e) {
+                    log.warn("Couldn't read the journal orderings, retrying in {}", pollInterval, e);
+                    Thread.sleep(pollInterval.toMillis());
+                    missedInserts();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refresh(Set<String> tags) throws SQLException {
+        try (Connection connection = dataSource.get().getConnection()) {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(true);
+            if (tracker == null) {
+                tracker = new JournalGapTracker(Math.max(0, findMax(connection) - batchSize), giveUpAfter, System::nanoTime);
+            }
+            long safeMaxBefore = tracker.safeMax();
+            long gapsBefore = tracker.resolved() + tracker.abandoned();
+
+            for (JournalGapTracker.Gap gap : tracker.gaps()) {
+                try (PreparedStatement statement = connection.prepareStatement(findInGapQuery)) {
+                    statement.setLong(1, gap.from);
+                    statement.setLong(2, gap.to);
+                    record(statement);
+                }
+            }
+            tracker.abandonExpired();
+            int found;
+            do {
+                try (PreparedStatement statement = connection.prepareStatement(findNextQuery)) {
+                    statement.setLong(1, tracker.maxSeen());
+                    statement.setInt(2, batchSize);
+                    found = record(statement);
+                }
+            } while (found == batchSize);
+
+            if (tracker.safeMax() > safeMaxBefore) {
+                boolean gapClosed = tracker.resolved() + tracker.abandoned() > gapsBefore;
+                if (gapClosed || tags.isEmpty() || tags.contains(ALL_TAGS)) {
+                    wakeups.signalAll();
+                } else {
+                    tags.forEach(wakeups::signal);
+                }
+            } else if (tags.contains(ALL_TAGS)) {
+                wakeups.signalAll();
+            }
+        }
+    }
+
+    private long findMax(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(findMaxQuery);
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private int record(PreparedStatement statement) throws SQLException {
+        int found = 0;
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                tracker.found(rs.getLong(1));
+                found++;
+            }
+        }
+        return found;
+    }
+}
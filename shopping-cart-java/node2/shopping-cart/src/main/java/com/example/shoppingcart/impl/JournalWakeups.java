@@ -0,0 +1,72 @@
+package com.example.shoppingcart.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wakes up the tag queries of {@link NotifyingJdbcReadJournal} when events with their tag
+ * are written to the journal.
+ * <p>
+ * Each tag has a generation, bumped on every signal. A query reads the generation before
+ * it runs and then waits for it to change, so a signal received while the query was
+ * running isn't lost. The waiters of a tag share a single future, a query that stopped
+ * waiting for it leaves nothing behind.
+ */
+class JournalWakeups {
+
+    private static final class TagWakeups {
+        long generation;
+        CompletableFuture<Long> next = new CompletableFuture<>();
+    }
+
+    private final ConcurrentMap<String, TagWakeups> tags = new ConcurrentHashMap<>();
+
+    long generation(String tag) {
+        TagWakeups wakeups = wakeups(tag);
+        synchronized (wakeups) {
+            return wakeups.generation;
+        }
+    }
+
+    /**
+     * Complete once the generation of the tag is past {@code seen}, with the new generation.
+     */
+    CompletionStage<Long> next(String tag, long seen) {
+        TagWakeups wakeups = wakeups(tag);
+        synchronized (wakeups) {
+            if (wakeups.generation > seen) {
+                return CompletableFuture.completedFuture(wakeups.generation);
+            }
+            return wakeups.next;
+        }
+    }
+
+    void signal(String tag) {
+        signal(wakeups(tag));
+    }
+
+    /**
+     * Wake up all the tags, for when signals may have been missed.
+     */
+    void signalAll() {
+        tags.values().forEach(JournalWakeups::signal);
+    }
+
+    private static void signal(TagWakeups wakeups) {
+        CompletableFuture<Long> waiting;
+        long generation;
+        synchronized (wakeups) {
+            generation = ++wakeups.generation;
+            waiting = wakeups.next;
+            wakeups.next = new CompletableFuture<>();
+        }
+        // completed outside the lock, the waiters run their queries from here
+        waiting.complete(generation);
+    }
+
+    private TagWakeups wakeups(String tag) {
+        return tags.computeIfAbsent(tag, t -> new TagWakeups());
+    }
+}
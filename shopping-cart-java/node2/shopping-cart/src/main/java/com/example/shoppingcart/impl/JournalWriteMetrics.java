@@ -0,0 +1,47 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Reports the journal writes, as recorded by the {@link MeteredJdbcAsyncWriteJournal},
+ * and the write batching settings along with the other metrics.
+ * <p>
+ * The JDBC journal already group commits: persists from all the entities of a node go
+ * through one queue of up to {@code jdbc-journal.bufferSize} writes, drained by
+ * {@code jdbc-journal.parallelism} writers that each insert up to
+ * {@code jdbc-journal.batchSize} rows in a single transaction. There's no fixed window,
+ * writes queue up for as long as the writers are busy committing the previous batches,
+ * so fewer writers make for fewer, bigger commits under load. Each entity still persists
+ * one write at a time and replies once its write has committed.
+ * <p>
+ * The {@code journal.write} latency is the time an entity waits for its write to commit,
+ * the {@code journal.events-in-flight} gauge is what the writers have to batch, and
+ * {@code journal.events-written} over {@code journal.writes} the events per write.
+ * {@code journal.write-failures} counts the atomic writes that failed, whose events
+ * aren't counted as written.
+ */
+@Singleton
+public class JournalWriteMetrics {
+
+    @Inject
+    public JournalWriteMetrics(Config config, ActorSystem system, ShoppingCartMetrics metrics) {
+        Config journal = config.getConfig("jdbc-journal");
+        int batchSize = journal.getInt("batchSize");
+        int parallelism = journal.getInt("parallelism");
+        int bufferSize = journal.getInt("bufferSize");
+        metrics.registerGauge("journal.batch-size", () -> batchSize);
+        metrics.registerGauge("journal.parallelism", () -> parallelism);
+        metrics.registerGauge("journal.buffer-size", () -> bufferSize);
+
+        JournalWrites writes = JournalWrites.get(system);
+        metrics.registerLatency(writes.latency);
+        metrics.registerGauge("journal.writes", writes.writes::sum);
+        metrics.registerGauge("journal.events-written", writes.events::sum);
+        metrics.registerGauge("journal.write-failures", writes.failures::sum);
+        metrics.registerGauge("journal.events-in-flight", writes.eventsInFlight::sum);
+    }
+}
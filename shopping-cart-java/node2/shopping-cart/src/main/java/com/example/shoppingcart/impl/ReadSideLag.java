@@ -0,0 +1,215 @@
+package com.example.shoppingcart.impl;
+
+import akka.actor.ActorSystem;
+import akka.persistence.PersistentRepr;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.example.shoppingcart.api.ReadSideLagView;
+import com.google.common.base.Suppliers;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.typesafe.config.Config;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Measures how far the read-side processors are behind the journal, every
+ * {@code shopping-cart.read-side-lag.interval}.
+ * <p>
+ * For each processor and tag, the first event of the tag past the processor offset in
+ * {@code read_side_offsets} is looked up. The lag in events is the distance from its
+ * ordering to the highest journal ordering, and the lag in time is its age. Both are 0
+ * when the processor has processed all the events of the tag. The offsets are shared by
+ * the cluster, so all nodes report the same lag.
+ * <p>
+ * When the readiness check is enabled, the node isn't ready to serve reports until the
+ * lag of the report processor has been within {@code max-lag} once, see
+ * {@link #isReady()}.
+ */
+@Singleton
+public class ReadSideLag {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadSideLag.class);
+
+    private static final String FIND_OFFSET =
+            "SELECT \"sequence_offset\" FROM \"read_side_offsets\" WHERE \"read_side_id\" = ? AND \"tag\" = ?";
+
+    private final String findHeadQuery;
+    private final String findNextEventQuery;
+    private final Supplier<DataSource> dataSource;
+    private final Serialization serialization;
+    private final List<String> readSides;
+    private final List<String> tags = new ArrayList<>();
+    private final long maxLagMillis;
+
+    private volatile PSequence<ReadSideLagView> lags = TreePVector.empty();
+    private volatile long measuredAt;
+    private volatile boolean ready;
+
+    @Inject
+    public ReadSideLag(ActorSystem system, Config config, ShoppingCartMetrics metrics) {
+        Config settings = config.getConfig("shopping-cart.read-side-lag");
+        String jndiName = config.getString("db.default.jndiName");
+        JournalTable journal = JournalTable.of(config.getConfig("jdbc-read-journal"));
+        this.findHeadQuery = "SELECT MAX(" + journal.ordering + ") FROM " + journal.table;
+        this.findNextEventQuery = "SELECT " + journal.ordering + ", " + journal.message + " FROM " + journal.table
+                + " WHERE " + journal.tags + " LIKE ? AND " + journal.ordering + " > ? ORDER BY " + journal.ordering + " LIMIT 1";
+        this.dataSource = Suppliers.memoize(() -> ReportQueries.lookup(jndiName))::get;
+        this.serialization = SerializationExtension.get(system);
+        this.readSides = settings.getStringList("read-sides");
+        for (AggregateEventTag<ShoppingCartEvent> tag : ShoppingCartEvent.TAG.allTags()) {
+            tags.add(tag.tag());
+        }
+        if (config.getBoolean("shopping-cart.report.consume-legacy-tag")) {
+            tags.add(ShoppingCartEvent.LEGACY_TAG.tag());
+        }
+        this.maxLagMillis = settings.getDuration("readiness.max-lag").toMillis();
+        this.ready = !settings.getBoolean("readiness.enabled");
+
+        metrics.registerGauge("read-side-lag.max-events", () -> max(view -> view.lagEvents));
+        metrics.registerGauge("read-side-lag.max-millis", () -> max(view -> view.lagMillis));
+        metrics.registerGauge("read-side-lag.ready", () -> ready ? 1 : 0);
+
+        Duration interval = settings.getDuration("interval");
+        FiniteDuration period = FiniteDuration.create(interval.toNanos(), TimeUnit.NANOSECONDS);
+        ExecutionContext executor = system.dispatchers().lookup("shopping-cart.report.query-dispatcher");
+        system.scheduler().schedule(period, period, this::refresh, executor);
+    }
+
+    /**
+     * The lag of each read-side processor and tag, as last measured.
+     */
+    PSequence<ReadSideLagView> lags() {
+        return lags;
+    }
+
+    /**
+     * How stale the given read-side may be, in milliseconds: all the events older than
+     * this have been processed. It adds the time since the lag was measured to the lag,
+     * and is {@link Long#MAX_VALUE} until the lag of the read-side has been measured.
+     */
+    long stalenessMillis(String readSideId) {
+        PSequence<ReadSideLagView> views = lags;
+        OptionalLong lag = views.stream()
+                .filter(view -> view.readSideId.equals(readSideId))
+                .mapToLong(view -> view.lagMillis)
+                .max();
+        return lag.isPresent() ? lag.getAsLong() + Math.max(0, System.currentTimeMillis() - measuredAt) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Whether the report read-side has caught up since the node started, always true when the
+     * readiness check is disabled. Once ready, the node stays ready.
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    private void refresh() {
+        try (Connection connection = dataSource.get().getConnection()) {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(true);
+            long head = queryLong(connection, findHeadQuery);
+            long now = System.currentTimeMillis();
+            PSequence<ReadSideLagView> views = TreePVector.empty();
+            for (String readSide : readSides) {
+                for (String tag : tags) {
+                    long offset = findOffset(connection, readSide, tag);
+                    long lagEvents = 0;
+                    long lagMillis = 0;
+                    Optional<NextEvent> next = findNextEvent(connection, tag, offset);
+                    if (next.isPresent()) {
+                        lagEvents = head - next.get().ordering + 1;
+                        lagMillis = Math.max(0, now - next.get().eventTime.toEpochMilli());
+                    }
+                    views = views.plus(new ReadSideLagView(readSide, tag, offset, head, lagEvents, lagMillis));
+                }
+            }
+            measuredAt = now;
+            lags = views;
+            if (!ready && stalenessMillis(ShoppingCartReportProcessor.READ_SIDE_ID) <= maxLagMillis) {
+                log.info("The report read-side has caught up, the node is ready to serve reports");
+                ready = true;
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Couldn't measure the read-side lag", e);
+        }
+    }
+
+    private long max(ToLongFunction<ReadSideLagView> lag) {
+        return lags.stream().mapToLong(lag).max().orElse(0);
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static long findOffset(Connection connection, String readSide, String tag) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(FIND_OFFSET)) {
+            statement.setString(1, readSide);
+            statement.setString(2, tag);
+            try (ResultSet rs = statement.executeQuery()) {
+                // a processor that hasn't stored an offset yet starts from the beginning
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private Optional<NextEvent> findNextEvent(Connection connection, String tag, long offset) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(findNextEventQuery)) {
+            statement.setString(1, "%" + tag + "%");
+            statement.setLong(2, offset);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                Object event = serialization.deserialize(rs.getBytes(2), PersistentRepr.class).get().payload();
+                Instant eventTime;
+                if (event instanceof ShoppingCartEvent.ItemUpdated) {
+                    eventTime = ((ShoppingCartEvent.ItemUpdated) event).getEventTime();
+                } else if (event instanceof ShoppingCartEvent.CheckedOut) {
+                    eventTime = ((ShoppingCartEvent.CheckedOut) event).getEventTime();
+                } else {
+                    eventTime = null;
+                }
+                return Optional.of(new NextEvent(rs.getLong(1), eventTime == null ? Instant.now() : eventTime));
+            }
+        }
+    }
+
+    /**
+     * The first event of a tag the processor has yet to process.
+     */
+    private static final class NextEvent {
+        final long ordering;
+        final Instant eventTime;
+
+        NextEvent(long ordering, Instant eventTime) {
+            this.ordering = ordering;
+            this.eventTime = eventTime;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.shoppingcart.impl;
 
+import com.example.shoppingcart.api.ShoppingCartReportView;
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
 import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 @Singleton
@@ -12,9 +14,15 @@ public class ReportRepository {
 
     private final JpaSession jpaSession;
 
+    private final ReportQueries queries;
+
+    private final ShoppingCartReportCache cache;
+
     @Inject
-    public ReportRepository(ReadSide readSide, JpaSession jpaSession) {
+    public ReportRepository(ReadSide readSide, JpaSession jpaSession, ReportQueries queries, ShoppingCartReportCache cache) {
         this.jpaSession = jpaSession;
+        this.queries = queries;
+        this.cache = cache;
         readSide.register(ShoppingCartReportProcessor.class);
     }
 
@@ -22,4 +30,12 @@ public class ReportRepository {
         return jpaSession.withTransaction(em -> em.find(ShoppingCartReport.class, cartId));
     }
 
+    /**
+     * Find the report view of a cart, going through the {@link ShoppingCartReportCache}
+     * and the read-only {@link ReportQueries}.
+     */
+    CompletionStage<Optional<ShoppingCartReportView>> findView(String cartId) {
+        return cache.get(cartId, () -> queries.findView(cartId));
+    }
+
 }
@@ -0,0 +1,32 @@
+package com.example.shoppingcart.impl;
+
+import akka.stream.Materializer;
+import com.typesafe.config.Config;
+import play.mvc.Filter;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Adds a Retry-After header to the 503 responses, sent when the service sheds load, since
+ * Lagom error responses can't carry headers.
+ */
+public class RetryAfterFilter extends Filter {
+
+    private final String retryAfter;
+
+    @Inject
+    public RetryAfterFilter(Materializer materializer, Config config) {
+        super(materializer);
+        this.retryAfter = String.valueOf(Math.max(1, config.getDuration("shopping-cart.concurrency-limit.retry-after").getSeconds()));
+    }
+
+    @Override
+    public CompletionStage<Result> apply(Function<Http.RequestHeader, CompletionStage<Result>> next, Http.RequestHeader request) {
+        return next.apply(request).thenApply(result ->
+                result.status() == Http.Status.SERVICE_UNAVAILABLE ? result.withHeader(Http.HeaderNames.RETRY_AFTER, retryAfter) : result);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.shoppingcart.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaReadSide;
+import com.typesafe.config.Config;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.Persistence;
+
+/**
+ * Projects the items and checked out flag of each cart into {@link ShoppingCartContents},
+ * so that carts nobody is using can be read without recovering their entity.
+ */
+public class ShoppingCartContentsProcessor extends ReadSideProcessor<ShoppingCartEvent> {
+
+    static final String READ_SIDE_ID = "shopping-cart-contents";
+
+    private final JpaReadSide jpaReadSide;
+
+    private final boolean consumeLegacyTag;
+
+    @Inject
+    public ShoppingCartContentsProcessor(JpaReadSide jpaReadSide, Config config) {
+        this.jpaReadSide = jpaReadSide;
+        this.consumeLegacyTag = config.getBoolean("shopping-cart.report.consume-legacy-tag");
+    }
+
+    /**
+     * Each worker builds its own handler, which remembers whether its tag is the legacy
+     * one to flag the carts it writes, see {@link ShoppingCartContents#isConsistent()}.
+     */
+    @Override
+    public ReadSideHandler<ShoppingCartEvent> buildHandler() {
+        boolean[] legacyTag = {false};
+        return jpaReadSide
+                .<ShoppingCartEvent>builder(READ_SIDE_ID)
+                .setGlobalPrepare(this::createSchema)
+                .setPrepare((entityManager, tag) -> legacyTag[0] = tag.equals(ShoppingCartEvent.LEGACY_TAG))
+                .setEventHandler(ShoppingCartEvent.ItemUpdated.class, (entityManager, evt) ->
+                        findOrCreate(entityManager, evt.shoppingCartId).apply(evt, legacyTag[0]))
+                .setEventHandler(ShoppingCartEvent.CheckedOut.class, (entityManager, evt) ->
+                        findOrCreate(entityManager, evt.shoppingCartId).apply(evt, legacyTag[0]))
+                .build();
+    }
+
+    private void createSchema(@SuppressWarnings("unused") EntityManager ignored) {
+        Persistence.generateSchema("default", ImmutableMap.of("hibernate.hbm2ddl.auto", "update"));
+    }
+
+    private ShoppingCartContents findOrCreate(EntityManager entityManager, String cartId) {
+        ShoppingCartContents contents = entityManager.find(ShoppingCartContents.class, cartId);
+        if (contents == null) {
+            contents = new ShoppingCartContents();
+            contents.setId(cartId);
+            entityManager.persist(contents);
+        }
+        return contents;
+    }
+
+    /**
+     * The same tags as the report projection, see {@link ShoppingCartReportProcessor#aggregateTags()}.
+     */
+    @Override
+    public PSequence<AggregateEventTag<ShoppingCartEvent>> aggregateTags() {
+        PSequence<AggregateEventTag<ShoppingCartEvent>> tags = TreePVector.from(ShoppingCartEvent.TAG.allTags());
+        return consumeLegacyTag ? tags.plus(ShoppingCartEvent.LEGACY_TAG) : tags;
+    }
+}
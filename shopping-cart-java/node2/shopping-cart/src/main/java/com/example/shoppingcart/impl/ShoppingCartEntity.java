@@ -1,9 +1,11 @@
 package com.example.shoppingcart.impl;
 
 import akka.Done;
+import com.example.shoppingcart.api.ShoppingCartItem;
 import com.example.shoppingcart.impl.ShoppingCartCommand.Checkout;
 import com.example.shoppingcart.impl.ShoppingCartCommand.Get;
 import com.example.shoppingcart.impl.ShoppingCartCommand.UpdateItem;
+import com.example.shoppingcart.impl.ShoppingCartCommand.UpdateItems;
 import com.example.shoppingcart.impl.ShoppingCartEvent.CheckedOut;
 import com.example.shoppingcart.impl.ShoppingCartEvent.ItemUpdated;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntity;
@@ -11,18 +13,24 @@ import com.lightbend.lagom.javadsl.persistence.PersistentEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * This is an event sourced entity. It has a state, {@link ShoppingCartState}, which
  * stores the current shopping cart items and whether it's checked out.
  *
  * Event sourced entities are interacted with by sending them commands. This
- * entity supports three commands, an {@link UpdateItem} command, which is used to
- * update the quantity of an item in the cart, a {@link Checkout} command which is
- * used to set checkout the shopping cart, and a {@link Get} command, which is a read
- * only command which returns the current shopping cart state.
+ * entity supports four commands, an {@link UpdateItem} command, which is used to
+ * update the quantity of an item in the cart, an {@link UpdateItems} command, which
+ * updates many items in one go, a {@link Checkout} command which is used to set
+ * checkout the shopping cart, and a {@link Get} command, which is a read only
+ * command which returns the current shopping cart state.
  *
  * Commands get translated to events, and it's the events that get persisted by
  * the entity. Each event will have an event handler registered for it, and an
@@ -32,12 +40,27 @@ import java.util.Optional;
  * of the entity.
  *
  * This entity defines two events, the {@link ItemUpdated} event, which is emitted
- * when a {@link UpdateItem} command is received, and a {@link CheckedOut} event, which
- * is emitted when a {@link Checkout} command is received.
+ * when a {@link UpdateItem} command is received (once per item for an
+ * {@link UpdateItems} command), and a {@link CheckedOut} event, which is emitted
+ * when a {@link Checkout} command is received.
+ *
+ * Once the events of a command are persisted, the new state is published to the
+ * cart subscribers through {@link CartChanges}.
  */
 public class ShoppingCartEntity extends PersistentEntity<ShoppingCartCommand, ShoppingCartEvent, ShoppingCartState> {
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ShoppingCartMetrics metrics;
+
+    private final CartChanges changes;
+
+    @Inject
+    public ShoppingCartEntity(ShoppingCartMetrics metrics, CartChanges changes) {
+        this.metrics = metrics;
+        this.changes = changes;
+    }
+
     /**
      * An entity can define different behaviours for different states, but it will
      * always start with an initial behaviour. This entity only has one behaviour.
@@ -68,8 +91,46 @@ public class ShoppingCartEntity extends PersistentEntity<ShoppingCartCommand, Sh
                 ctx.commandFailed(new ShoppingCartException("Cannot delete item that is not already in cart"));
                 return ctx.done();
             } else {
-                logger.info("updating entity cart [" + entityId() + "]");
-                return ctx.thenPersist(new ItemUpdated(entityId(), cmd.getProductId(), cmd.getQuantity(), Instant.now()), e -> ctx.reply(Done.getInstance()));
+                logger.debug("updating entity cart [{}]", entityId());
+                long start = System.nanoTime();
+                return ctx.thenPersist(new ItemUpdated(entityId(), cmd.getProductId(), cmd.getQuantity(), Instant.now()), e -> {
+                    metrics.record(ShoppingCartMetrics.UPDATE_ITEM, ShoppingCartMetrics.PERSIST, start);
+                    changes.publish(entityId(), state());
+                    ctx.reply(Done.getInstance());
+                });
+            }
+        });
+
+        // Command handler for the UpdateItems command, the whole batch is validated
+        // before anything is persisted so that it's applied all or nothing
+        b.setCommandHandler(UpdateItems.class, (cmd, ctx) -> {
+            Set<String> productIds = new HashSet<>(state().getItems().productIds());
+            List<ItemUpdated> events = new ArrayList<>(cmd.getItems().size());
+            Instant now = Instant.now();
+            for (ShoppingCartItem item : cmd.getItems()) {
+                if (item.getQuantity() < 0) {
+                    ctx.commandFailed(new ShoppingCartException("Quantity must be greater than zero"));
+                    return ctx.done();
+                } else if (item.getQuantity() == 0 && !productIds.remove(item.getProductId())) {
+                    ctx.commandFailed(new ShoppingCartException("Cannot delete item that is not already in cart"));
+                    return ctx.done();
+                } else if (item.getQuantity() > 0) {
+                    productIds.add(item.getProductId());
+                }
+                events.add(new ItemUpdated(entityId(), item.getProductId(), item.getQuantity(), now));
+            }
+
+            if (events.isEmpty()) {
+                ctx.reply(Done.getInstance());
+                return ctx.done();
+            } else {
+                logger.debug("updating {} items in entity cart [{}]", events.size(), entityId());
+                long start = System.nanoTime();
+                return ctx.thenPersistAll(events, () -> {
+                    metrics.record(ShoppingCartMetrics.UPDATE_ITEMS, ShoppingCartMetrics.PERSIST, start);
+                    changes.publish(entityId(), state());
+                    ctx.reply(Done.getInstance());
+                });
             }
         });
 
@@ -79,7 +140,12 @@ public class ShoppingCartEntity extends PersistentEntity<ShoppingCartCommand, Sh
                 ctx.commandFailed(new ShoppingCartException("Cannot checkout empty cart"));
                 return ctx.done();
             } else {
-                return ctx.thenPersist(new CheckedOut(entityId(), Instant.now()), e -> ctx.reply(Done.getInstance()));
+                long start = System.nanoTime();
+                return ctx.thenPersist(new CheckedOut(entityId(), Instant.now()), e -> {
+                    metrics.record(ShoppingCartMetrics.CHECKOUT, ShoppingCartMetrics.PERSIST, start);
+                    changes.publish(entityId(), state());
+                    ctx.reply(Done.getInstance());
+                });
             }
         });
         commonHandlers(b);
@@ -93,6 +159,9 @@ public class ShoppingCartEntity extends PersistentEntity<ShoppingCartCommand, Sh
         b.setReadOnlyCommandHandler(UpdateItem.class, (cmd, ctx) ->
             ctx.commandFailed(new ShoppingCartException("Can't update item on already checked out shopping cart"))
         );
+        b.setReadOnlyCommandHandler(UpdateItems.class, (cmd, ctx) ->
+            ctx.commandFailed(new ShoppingCartException("Can't update item on already checked out shopping cart"))
+        );
         b.setReadOnlyCommandHandler(Checkout.class, (cmd, ctx) ->
             ctx.commandFailed(new ShoppingCartException("Can't checkout on already checked out shopping cart"))
         );
@@ -104,9 +173,8 @@ public class ShoppingCartEntity extends PersistentEntity<ShoppingCartCommand, Sh
      * Add all the handlers that are shared across all states to the behavior builder.
      */
     private void commonHandlers(BehaviorBuilder b) {
-
         b.setReadOnlyCommandHandler(Get.class, (cmd, ctx) -> {
-            logger.info("getting entity cart state [" + entityId() + "]");
+            logger.debug("getting entity cart state [{}]", entityId());
             ctx.reply(state());
         });
 
@@ -4,9 +4,11 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Preconditions;
 import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTagger;
 import com.lightbend.lagom.serialization.Jsonable;
+import com.typesafe.config.ConfigFactory;
 import lombok.Value;
 
 import java.time.Instant;
@@ -19,9 +21,31 @@ import java.time.Instant;
  */
 public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCartEvent> {
     /**
-     * The tag for shopping cart events, used for consuming the Journal event stream later.
+     * The number of shards the shopping cart events are tagged with, each shard is
+     * consumed by its own read-side worker.
+     * <p>
+     * It's read from {@code shopping-cart.event-tag-shards}, and every node of the
+     * cluster must use the same value. Changing it moves carts to other tags, which
+     * is only safe once the read-sides have caught up. It's at most 10, the JDBC
+     * journal matches tags as substrings so shard 1 would also match shard 10, see
+     * {@link EventTagShards}. The tags are needed before anything is injected, so it's
+     * read from the default config, the service checks that its injected config agrees.
      */
-    AggregateEventTag<ShoppingCartEvent> TAG = AggregateEventTag.of(ShoppingCartEvent.class);
+    int NUM_SHARDS = EventTagShards.numShards(ConfigFactory.load());
+
+    /**
+     * The tags for shopping cart events, used for consuming the Journal event stream later.
+     * <p>
+     * The base tag name is the simple class name so that no shard tag contains the
+     * {@link #LEGACY_TAG} name, nor the other way around.
+     */
+    AggregateEventShards<ShoppingCartEvent> TAG = AggregateEventTag.sharded(ShoppingCartEvent.class, "ShoppingCartEvent", NUM_SHARDS);
+
+    /**
+     * The single tag shopping cart events were tagged with before they were sharded. No
+     * new events get this tag, but the events already in the journal keep it.
+     */
+    AggregateEventTag<ShoppingCartEvent> LEGACY_TAG = AggregateEventTag.of(ShoppingCartEvent.class);
 
     /**
      * An event that represents a item updated event.
@@ -0,0 +1,95 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.LatencyView;
+import com.example.shoppingcart.api.ShoppingCartMetricsView;
+import com.typesafe.config.Config;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of the shopping cart service on this node.
+ * <p>
+ * Each command is timed in phases: the {@link #ASK} phase is the round trip of the
+ * ask through cluster sharding as seen by the service, the {@link #PERSIST} phase is
+ * the journal write as seen by the entity, and the {@link #REPLY} phase is the time
+ * spent by the service turning the entity reply into the response. Components can
+ * also register gauges, which are read each time the metrics are reported, and
+ * latencies of their own.
+ */
+@Singleton
+public class ShoppingCartMetrics {
+
+    public static final String GET = "get";
+    public static final String UPDATE_ITEM = "update-item";
+    public static final String UPDATE_ITEMS = "update-items";
+    public static final String CHECKOUT = "checkout";
+
+    public static final String ASK = "ask";
+    public static final String PERSIST = "persist";
+    public static final String REPLY = "reply";
+
+    private final Duration window;
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    @Inject
+    public ShoppingCartMetrics(Config config) {
+        this(config.getDuration("shopping-cart.metrics.window"));
+    }
+
+    ShoppingCartMetrics(Duration window) {
+        this.window = window;
+    }
+
+    /**
+     * Record the time elapsed since {@code startNanos}, as returned by {@link System#nanoTime()},
+     * for the given command phase.
+     */
+    public void record(String command, String phase, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        latencies.computeIfAbsent(LatencyRecorder.name(command, phase), key -> new LatencyRecorder(command, phase, window)).record(elapsed);
+    }
+
+    public void rejected(String message) {
+        rejections.computeIfAbsent(String.valueOf(message), key -> new LongAdder()).increment();
+    }
+
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Report a latency recorded outside of the commands, such as the journal writes.
+     */
+    void registerLatency(LatencyRecorder recorder) {
+        latencies.put(recorder.name(), recorder);
+    }
+
+    public ShoppingCartMetricsView snapshot() {
+        PSequence<LatencyView> latencyViews = TreePVector.empty();
+        for (LatencyRecorder recorder : latencies.values()) {
+            latencyViews = latencyViews.plus(recorder.snapshot());
+        }
+        PMap<String, Long> rejectionCounts = HashTreePMap.empty();
+        for (Map.Entry<String, LongAdder> rejection : rejections.entrySet()) {
+            rejectionCounts = rejectionCounts.plus(rejection.getKey(), rejection.getValue().sum());
+        }
+        PMap<String, Long> gaugeValues = HashTreePMap.empty();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            gaugeValues = gaugeValues.plus(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return new ShoppingCartMetricsView(latencyViews, rejectionCounts, gaugeValues);
+    }
+}
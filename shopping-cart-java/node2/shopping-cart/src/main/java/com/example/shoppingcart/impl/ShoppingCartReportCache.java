@@ -0,0 +1,151 @@
+package com.example.shoppingcart.impl;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.RestartSource;
+import com.example.shoppingcart.api.ShoppingCartReportView;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRef;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
+import com.typesafe.config.Config;
+import org.hibernate.Session;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of the shopping cart reports served by {@link ReportRepository}.
+ * <p>
+ * A report changes at most twice, when the cart is created and when it's checked out,
+ * so entries are evicted by size and TTL and explicitly invalidated by the report
+ * projection once its transaction has committed. Invalidations are also published to
+ * the other nodes through Lagom PubSub. PubSub delivery is at most once, so a lost
+ * invalidation leaves a stale report until the TTL expires. Should the subscription to
+ * the invalidations fail, it's restarted with a backoff and the whole cache is
+ * invalidated, since the invalidations published meanwhile are lost.
+ * <p>
+ * Only existing reports are cached, a missing report is looked up again on every request.
+ */
+@Singleton
+public class ShoppingCartReportCache {
+
+    private static final TopicId<String> INVALIDATIONS = TopicId.of(String.class, "shopping-cart-report-invalidations");
+
+    private final Cache<String, ShoppingCartReportView> cache;
+    private final PubSubRef<String> invalidations;
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * Bumped on every invalidation of a cart hashing to the stripe, a load only populates
+     * the cache if no invalidation of its stripe happened while it was reading the
+     * database, otherwise it could cache a report read before the invalidating
+     * transaction committed. The stripes keep unrelated invalidations from stopping the
+     * loads of the other carts, with a bounded number of counters.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Inject
+    public ShoppingCartReportCache(Config config, PubSubRegistry pubSub, Materializer materializer, ShoppingCartMetrics metrics) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getLong("shopping-cart.report.cache.max-size"))
+                .expireAfterWrite(config.getDuration("shopping-cart.report.cache.ttl").toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.invalidations = pubSub.refFor(INVALIDATIONS);
+        RestartSource.withBackoff(
+                toScala(config.getDuration("shopping-cart.report.cache.resubscribe.min-backoff")),
+                toScala(config.getDuration("shopping-cart.report.cache.resubscribe.max-backoff")),
+                0.2,
+                () -> {
+                    invalidateAllLocally();
+                    return invalidations.subscriber();
+                })
+                .runForeach(this::invalidateLocally, materializer);
+
+        metrics.registerGauge("report-cache.size", cache::size);
+        metrics.registerGauge("report-cache.hits", () -> cache.stats().hitCount());
+        metrics.registerGauge("report-cache.misses", () -> cache.stats().missCount());
+        metrics.registerGauge("report-cache.evictions", () -> cache.stats().evictionCount());
+    }
+
+    /**
+     * Get the cached report view, or load it and cache it if it exists.
+     */
+    CompletionStage<Optional<ShoppingCartReportView>> get(String cartId, Supplier<CompletionStage<Optional<ShoppingCartReportView>>> loader) {
+        ShoppingCartReportView cached = cache.getIfPresent(cartId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.of(cached));
+        }
+        int stripe = stripe(cartId);
+        long loadGeneration = generations.get(stripe);
+        return loader.get().thenApply(view -> {
+            if (view.isPresent() && generations.get(stripe) == loadGeneration) {
+                cache.put(cartId, view.get());
+            }
+            return view;
+        });
+    }
+
+    /**
+     * Invalidate the given report on all nodes once the current transaction of the
+     * entity manager has committed.
+     */
+    void invalidateAfterCommit(EntityManager entityManager, String cartId) {
+        invalidateAfterCommit(entityManager, Collections.singleton(cartId));
+    }
+
+    void invalidateAfterCommit(EntityManager entityManager, Collection<String> cartIds) {
+        entityManager.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    cartIds.forEach(ShoppingCartReportCache.this::invalidate);
+                }
+            }
+        });
+    }
+
+    void invalidate(String cartId) {
+        invalidateLocally(cartId);
+        invalidations.publish(cartId);
+    }
+
+    private void invalidateLocally(String cartId) {
+        generations.incrementAndGet(stripe(cartId));
+        cache.invalidate(cartId);
+    }
+
+    private void invalidateAllLocally() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    private static int stripe(String cartId) {
+        return (cartId.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private static FiniteDuration toScala(Duration duration) {
+        return FiniteDuration.create(duration.toNanos(), TimeUnit.NANOSECONDS);
+    }
+}
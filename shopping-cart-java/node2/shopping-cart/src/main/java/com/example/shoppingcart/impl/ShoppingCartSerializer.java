@@ -0,0 +1,217 @@
+package com.example.shoppingcart.impl;
+
+import akka.serialization.SerializerWithStringManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+
+/**
+ * Compact binary serializer for the {@link ShoppingCartState} snapshots and the
+ * {@link ShoppingCartEvent} journal entries.
+ * <p>
+ * Every payload starts with a format version byte, so the format can evolve
+ * without breaking the data already stored: when a format changes, bump the
+ * version written and upcast the older versions in the matching read method.
+ * Snapshots and events written before this serializer existed were stored as JSON
+ * by the Lagom serializer, and are still read by it since the serializer id is
+ * stored along with each snapshot and journal row.
+ * <p>
+ * Bound to {@link ShoppingCartState} and {@link ShoppingCartEvent} in {@code application.conf}.
+ */
+public class ShoppingCartSerializer extends SerializerWithStringManifest {
+
+    private static final int IDENTIFIER = 471200;
+
+    static final String STATE_MANIFEST = "S";
+    static final String ITEM_UPDATED_MANIFEST = "IU";
+    static final String CHECKED_OUT_MANIFEST = "CO";
+
+    private static final byte STATE_V1 = 1;
+    private static final byte STATE_V2 = 2;
+    private static final byte ITEM_UPDATED_V1 = 1;
+    private static final byte CHECKED_OUT_V1 = 1;
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof ShoppingCartState) {
+            return STATE_MANIFEST;
+        } else if (o instanceof ShoppingCartEvent.ItemUpdated) {
+            return ITEM_UPDATED_MANIFEST;
+        } else if (o instanceof ShoppingCartEvent.CheckedOut) {
+            return CHECKED_OUT_MANIFEST;
+        } else {
+            throw new IllegalArgumentException("Can't serialize object of type " + o.getClass() + " in " + getClass().getName());
+        }
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (o instanceof ShoppingCartState) {
+                writeState((ShoppingCartState) o, out);
+            } else if (o instanceof ShoppingCartEvent.ItemUpdated) {
+                writeItemUpdated((ShoppingCartEvent.ItemUpdated) o, out);
+            } else if (o instanceof ShoppingCartEvent.CheckedOut) {
+                writeCheckedOut((ShoppingCartEvent.CheckedOut) o, out);
+            } else {
+                throw new IllegalArgumentException("Can't serialize object of type " + o.getClass() + " in " + getClass().getName());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            switch (manifest) {
+                case STATE_MANIFEST:
+                    return readState(in);
+                case ITEM_UPDATED_MANIFEST:
+                    return readItemUpdated(in);
+                case CHECKED_OUT_MANIFEST:
+                    return readCheckedOut(in);
+                default:
+                    throw new NotSerializableException("Unimplemented deserialization of message with manifest [" + manifest + "] in " + getClass().getName());
+            }
+        } catch (NotSerializableException e) {
+            throw e;
+        } catch (IOException e) {
+            NotSerializableException ex = new NotSerializableException("Can't deserialize message with manifest [" + manifest + "]: " + e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private void writeState(ShoppingCartState state, DataOutputStream out) throws IOException {
+        out.writeByte(STATE_V2);
+        out.writeBoolean(state.isCheckedOut());
+        writeVarLong(state.getVersion(), out);
+        CartItems items = state.getItems();
+        writeVarInt(items.size(), out);
+        for (int i = 0; i < items.size(); i++) {
+            out.writeUTF(items.productIdAt(i));
+            writeVarInt(items.quantityAt(i), out);
+        }
+    }
+
+    private ShoppingCartState readState(DataInputStream in) throws IOException {
+        byte format = in.readByte();
+        if (format != STATE_V1 && format != STATE_V2) {
+            throw new NotSerializableException("Unknown shopping cart state format version [" + format + "]");
+        }
+        boolean checkedOut = in.readBoolean();
+        // V1 predates the state version, those states count from zero
+        long version = format == STATE_V1 ? 0 : readVarLong(in);
+        int size = readVarInt(in);
+        String[] productIds = new String[size];
+        int[] quantities = new int[size];
+        for (int i = 0; i < size; i++) {
+            productIds[i] = in.readUTF();
+            quantities[i] = readVarInt(in);
+        }
+        return new ShoppingCartState(CartItems.ofSorted(productIds, quantities), checkedOut, version);
+    }
+
+    private void writeItemUpdated(ShoppingCartEvent.ItemUpdated event, DataOutputStream out) throws IOException {
+        out.writeByte(ITEM_UPDATED_V1);
+        out.writeUTF(event.getShoppingCartId());
+        out.writeUTF(event.getProductId());
+        writeVarInt(event.getQuantity(), out);
+        writeInstant(event.getEventTime(), out);
+    }
+
+    private ShoppingCartEvent.ItemUpdated readItemUpdated(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != ITEM_UPDATED_V1) {
+            throw new NotSerializableException("Unknown item updated format version [" + version + "]");
+        }
+        return new ShoppingCartEvent.ItemUpdated(in.readUTF(), in.readUTF(), readVarInt(in), readInstant(in));
+    }
+
+    private void writeCheckedOut(ShoppingCartEvent.CheckedOut event, DataOutputStream out) throws IOException {
+        out.writeByte(CHECKED_OUT_V1);
+        out.writeUTF(event.getShoppingCartId());
+        writeInstant(event.getEventTime(), out);
+    }
+
+    private ShoppingCartEvent.CheckedOut readCheckedOut(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != CHECKED_OUT_V1) {
+            throw new NotSerializableException("Unknown checked out format version [" + version + "]");
+        }
+        return new ShoppingCartEvent.CheckedOut(in.readUTF(), readInstant(in));
+    }
+
+    private static void writeInstant(Instant instant, DataOutputStream out) throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            writeVarLong(instant.getEpochSecond(), out);
+            writeVarInt(instant.getNano(), out);
+        }
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return Instant.ofEpochSecond(readVarLong(in), readVarInt(in));
+        } else {
+            return null;
+        }
+    }
+
+    static void writeVarInt(int value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new NotSerializableException("Malformed varint");
+    }
+
+    static void writeVarLong(long value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new NotSerializableException("Malformed varlong");
+    }
+}
@@ -2,13 +2,29 @@ package com.example.shoppingcart.impl;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.actor.ActorSystem;
 import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.example.shoppingcart.api.HotCartView;
+import com.example.shoppingcart.api.ReadSideLagView;
 import com.example.shoppingcart.api.ShoppingCart;
+import com.example.shoppingcart.api.ShoppingCartLookup;
+import com.example.shoppingcart.api.ShoppingCartMetricsView;
 import com.example.shoppingcart.api.ShoppingCartReportView;
 import com.example.shoppingcart.api.ShoppingCartService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.server.HeaderServiceCall;
 import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.api.transport.ExceptionMessage;
 import com.lightbend.lagom.javadsl.api.transport.NotFound;
+import com.lightbend.lagom.javadsl.api.transport.ResponseHeader;
+import com.lightbend.lagom.javadsl.api.transport.TransportErrorCode;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.lightbend.lagom.javadsl.persistence.PersistentEntity;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRef;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
 
@@ -17,14 +33,24 @@ import javax.inject.Inject;
 import com.example.shoppingcart.api.ShoppingCartItem;
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
 import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.typesafe.config.Config;
+import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 
 /**
@@ -32,52 +58,451 @@ import java.util.concurrent.CompletionStage;
  */
 public class ShoppingCartServiceImpl implements ShoppingCartService {
 
+    private static final String ETAG = "ETag";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final int NOT_MODIFIED = 304;
+    // the name of the 503 of an ask timing out, told apart from load shedding in the batch get
+    private static final String TIMEOUT = "Timeout";
+
     private final PersistentEntityRegistry persistentEntityRegistry;
 
     private final ReportRepository reportRepository;
 
+    private final ReadSideLag readSideLag;
+
+    private final CartContentsRepository contentsRepository;
+
+    private final ShoppingCartMetrics metrics;
+
+    private final Materializer materializer;
+
+    private final int batchGetMaxIds;
+
+    private final int batchGetParallelism;
+
+    private final int ingestMaxBatch;
+
+    private final Duration ingestMaxWait;
+
+    private final FiniteDuration streamResyncAfter;
+
+    private final FiniteDuration streamResyncInterval;
+
+    private final SingleFlight<String, VersionedCart> reads = new SingleFlight<>();
+
+    private final CartResponseCache responses;
+
+    private final CartChanges changes;
+
+    private final Optional<AdaptiveConcurrencyLimiter> limiter;
+
+    private final HeavyHitters hotCarts;
+
+    private final int hotCartsTop;
+
+    private final long hotCartThreshold;
+
+    private final Optional<UpdateMerger> hotCartMerger;
+
+    private final boolean coldReads;
+
+    private final boolean coldReadOpenCarts;
+
+    private final long coldReadMaxStalenessMillis;
+
+    private final Cache<String, Boolean> warmCarts;
+
+    private final LongAdder coldReadsServed = new LongAdder();
+
+    private final LongAdder coldReadFallbacks = new LongAdder();
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Inject
-    public ShoppingCartServiceImpl(PersistentEntityRegistry persistentEntityRegistry, ReportRepository reportRepository) {
+    public ShoppingCartServiceImpl(PersistentEntityRegistry persistentEntityRegistry, ReportRepository reportRepository,
+                                   ReadSideLag readSideLag, CartContentsRepository contentsRepository,
+                                   ShoppingCartMetrics metrics, CartChanges changes,
+                                   ActorSystem system, Materializer materializer, Config config) {
         this.persistentEntityRegistry = persistentEntityRegistry;
         this.reportRepository = reportRepository;
+        this.readSideLag = readSideLag;
+        this.contentsRepository = contentsRepository;
+        this.metrics = metrics;
+        this.changes = changes;
+        this.materializer = materializer;
+        this.batchGetMaxIds = config.getInt("shopping-cart.batch-get.max-ids");
+        this.batchGetParallelism = config.getInt("shopping-cart.batch-get.parallelism");
+        this.ingestMaxBatch = config.getInt("shopping-cart.ingest.max-batch");
+        this.ingestMaxWait = config.getDuration("shopping-cart.ingest.max-wait");
+        this.streamResyncAfter = FiniteDuration.create(config.getDuration("shopping-cart.stream.resync-after").toNanos(), TimeUnit.NANOSECONDS);
+        this.streamResyncInterval = FiniteDuration.create(config.getDuration("shopping-cart.stream.resync-interval").toNanos(), TimeUnit.NANOSECONDS);
+        this.responses = new CartResponseCache(config.getLong("shopping-cart.response-cache.max-size"));
+        this.limiter = config.getBoolean("shopping-cart.concurrency-limit.enabled")
+                ? Optional.of(new AdaptiveConcurrencyLimiter(
+                        config.getInt("shopping-cart.concurrency-limit.initial"),
+                        config.getInt("shopping-cart.concurrency-limit.min"),
+                        config.getInt("shopping-cart.concurrency-limit.max"),
+                        config.getDouble("shopping-cart.concurrency-limit.tolerance"),
+                        config.getDouble("shopping-cart.concurrency-limit.smoothing")))
+                : Optional.empty();
+        this.hotCarts = new HeavyHitters(
+                config.getInt("shopping-cart.hot-carts.capacity"),
+                config.getDuration("shopping-cart.hot-carts.window"));
+        this.hotCartsTop = config.getInt("shopping-cart.hot-carts.top");
+        this.hotCartThreshold = config.getLong("shopping-cart.hot-carts.throttle-threshold");
+        this.hotCartMerger = config.getBoolean("shopping-cart.hot-carts.throttle")
+                ? Optional.of(new UpdateMerger(system.scheduler(), system.dispatcher(),
+                        config.getDuration("shopping-cart.hot-carts.merge-window"),
+                        (id, items) -> write(id, ShoppingCartMetrics.UPDATE_ITEMS, new ShoppingCartCommand.UpdateItems(items), false),
+                        (id, item) -> write(id, ShoppingCartMetrics.UPDATE_ITEM, new ShoppingCartCommand.UpdateItem(item.getProductId(), item.getQuantity()), false)))
+                : Optional.empty();
+        this.coldReads = config.getBoolean("shopping-cart.cold-reads.enabled");
+        this.coldReadOpenCarts = config.getBoolean("shopping-cart.cold-reads.open-carts");
+        this.coldReadMaxStalenessMillis = config.getDuration("shopping-cart.cold-reads.max-staleness").toMillis();
+        this.warmCarts = CacheBuilder.newBuilder()
+                .maximumSize(config.getLong("shopping-cart.cold-reads.max-warm-carts"))
+                .expireAfterWrite(config.getDuration("shopping-cart.cold-reads.warm-for").toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+        EventTagShards.verify(config);
         persistentEntityRegistry.register(ShoppingCartEntity.class);
+        metrics.registerGauge("get.requests", reads::requests);
+        metrics.registerGauge("get.coalesced", reads::coalesced);
+        metrics.registerGauge("get.in-flight", reads::inFlight);
+        metrics.registerGauge("response-cache.size", responses::size);
+        metrics.registerGauge("response-cache.hits", responses::hits);
+        metrics.registerGauge("response-cache.misses", responses::misses);
+        limiter.ifPresent(l -> {
+            metrics.registerGauge("concurrency-limit.limit", l::limit);
+            metrics.registerGauge("concurrency-limit.in-flight", l::inFlight);
+            metrics.registerGauge("concurrency-limit.rejected", l::rejected);
+        });
+        if (coldReads) {
+            metrics.registerGauge("cold-reads.served", coldReadsServed::sum);
+            metrics.registerGauge("cold-reads.fallbacks", coldReadFallbacks::sum);
+        }
+        hotCartMerger.ifPresent(m -> {
+            metrics.registerGauge("hot-carts.merged-updates", m::merged);
+            metrics.registerGauge("hot-carts.merged-batches", m::batches);
+            metrics.registerGauge("hot-carts.merge-fallbacks", m::fallbacks);
+        });
     }
 
     private PersistentEntityRef<ShoppingCartCommand> entityRef(String id) {
         return persistentEntityRegistry.refFor(ShoppingCartEntity.class, id);
     }
 
+    /**
+     * Ask the entity, recording the round trip as the ask phase of the command. A counted
+     * ask is also offered to the hot carts, the asks of merged updates aren't since each
+     * of the updates was counted when submitted.
+     * <p>
+     * Asks go through the concurrency limiter, an ask rejected by the limiter or timing
+     * out fails with a 503, the filter {@link RetryAfterFilter} then tells the client
+     * when to retry.
+     */
+    private <Reply, Cmd extends ShoppingCartCommand & PersistentEntity.ReplyType<Reply>> CompletionStage<Reply> ask(String id, String command, Cmd cmd, boolean counted) {
+        return ask(id, command, cmd, counted, true);
+    }
+
+    private <Reply, Cmd extends ShoppingCartCommand & PersistentEntity.ReplyType<Reply>> CompletionStage<Reply> ask(String id, String command, Cmd cmd, boolean counted, boolean limited) {
+        if (counted) {
+            hotCarts.offer(id);
+        }
+        Supplier<CompletionStage<Reply>> ask = () -> {
+            long start = System.nanoTime();
+            return entityRef(id)
+                    .ask(cmd)
+                    .whenComplete((reply, error) -> metrics.record(command, ShoppingCartMetrics.ASK, start));
+        };
+        return limiter.filter(l -> limited).map(l -> l.run(ask)).orElseGet(ask).exceptionally(failure -> {
+            Throwable ex = failure instanceof CompletionException ? failure.getCause() : failure;
+            if (ex instanceof AdaptiveConcurrencyLimiter.LimitExceededException) {
+                metrics.rejected("Service overloaded");
+                throw new TransportException(TransportErrorCode.ServiceUnavailable,
+                        new ExceptionMessage("ServiceUnavailable", "Too many shopping cart requests, retry later"));
+            }
+            if (AdaptiveConcurrencyLimiter.isTimeout(ex)) {
+                metrics.rejected("Shopping cart timed out");
+                throw new TransportException(TransportErrorCode.ServiceUnavailable,
+                        new ExceptionMessage(TIMEOUT, "The shopping cart didn't reply in time, retry later"));
+            }
+            throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+        });
+    }
+
+    /**
+     * Ask the entity a command that changes the cart, once it has completed the reads
+     * of the cart already in flight are not shared with new requests anymore.
+     */
+    private <Cmd extends ShoppingCartCommand & PersistentEntity.ReplyType<Done>> CompletionStage<Done> write(String id, String command, Cmd cmd) {
+        return write(id, command, cmd, true);
+    }
+
+    private <Cmd extends ShoppingCartCommand & PersistentEntity.ReplyType<Done>> CompletionStage<Done> write(String id, String command, Cmd cmd, boolean counted) {
+        warm(id);
+        return ask(id, command, cmd, counted).whenComplete((done, error) -> {
+            reads.forget(id);
+            responses.invalidate(id);
+        });
+    }
+
+    /**
+     * Read the cart, concurrent reads of the same cart share one ask and one converted cart,
+     * and the converted cart is reused until the cart version changes.
+     */
+    private CompletionStage<VersionedCart> read(String id) {
+        return read(id, false);
+    }
+
+    /**
+     * Read the cart in the background, for the resyncs of {@link #stream}: the read isn't
+     * offered to the hot carts and doesn't take a slot of the concurrency limiter, there is
+     * at most one in flight per stream and a failed one is retried on the next tick.
+     */
+    private CompletionStage<VersionedCart> resync(String id) {
+        return read(id, true);
+    }
+
+    private CompletionStage<VersionedCart> read(String id, boolean background) {
+        warm(id);
+        return reads.get(id, () ->
+                ask(id, ShoppingCartMetrics.GET, ShoppingCartCommand.Get.INSTANCE, !background, !background)
+                        .thenApply(cart -> {
+                            long start = System.nanoTime();
+                            VersionedCart shoppingCart = responses.get(id, cart, state -> convertShoppingCart(id, state));
+                            metrics.record(ShoppingCartMetrics.GET, ShoppingCartMetrics.REPLY, start);
+                            return shoppingCart;
+                        }));
+    }
+
+    /**
+     * Read the cart for {@link #get} and {@link #getBatch}. With cold reads on, a checked
+     * out cart this node hasn't asked its entity about for
+     * {@code shopping-cart.cold-reads.warm-for} is served from its projected contents, see
+     * {@link ShoppingCartContentsProcessor}, since it can't change anymore. With
+     * {@code open-carts} on, so is a cart still open as long as the projection is at most
+     * {@code max-staleness} behind; the warmth is only known to this node, so a change
+     * made through another node may not be seen for up to {@code max-staleness}.
+     * Otherwise, or when the projection can't be read, the entity is asked.
+     * <p>
+     * The projected version counts the events projected, while the version of an entity
+     * recovered from a snapshot may not count them all, so a projected cart gets an ETag
+     * of its own, see {@link #etag(VersionedCart)}.
+     */
+    private CompletionStage<VersionedCart> readCold(String id) {
+        if (!coldReads || warmCarts.getIfPresent(id) != null) {
+            return read(id);
+        }
+        return contentsRepository.find(id)
+                .exceptionally(ex -> {
+                    logger.debug("failed to read the contents of cart [{}]", id, ex);
+                    return Optional.empty();
+                })
+                .thenCompose(contents -> {
+                    if (contents.isPresent() && canServeCold(contents.get())) {
+                        coldReadsServed.increment();
+                        ShoppingCartState state = contents.get().toState();
+                        return CompletableFuture.completedFuture(new VersionedCart(state.getVersion(), convertShoppingCart(id, state), true));
+                    }
+                    coldReadFallbacks.increment();
+                    return read(id);
+                });
+    }
+
+    private boolean canServeCold(ShoppingCartContents contents) {
+        return contents.isConsistent() && (contents.isCheckedOut() || coldReadOpenCarts
+                && readSideLag.stalenessMillis(ShoppingCartContentsProcessor.READ_SIDE_ID) <= coldReadMaxStalenessMillis);
+    }
+
+    /**
+     * Remember that the entity of the cart was asked, it stays in memory for a while.
+     */
+    private void warm(String id) {
+        if (coldReads) {
+            warmCarts.put(id, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * The cart version is sent as its ETag, when it matches the If-None-Match header of
+     * the request the cart hasn't changed and the response is a 304.
+     */
     @Override
     public ServiceCall<NotUsed, ShoppingCart> get(String id) {
 
-        logger.info("reading cart [" + id + "]");
-        return request ->
-                entityRef(id)
-                        .ask(ShoppingCartCommand.Get.INSTANCE)
-                        .thenApply(cart -> convertShoppingCart(id, cart));
+        logger.debug("reading cart [{}]", id);
+        return HeaderServiceCall.of((requestHeader, request) ->
+                readCold(id).thenApply(cart -> {
+                    String etag = etag(cart);
+                    ResponseHeader responseHeader = ResponseHeader.OK.withHeader(ETAG, etag);
+                    if (requestHeader.getHeader(IF_NONE_MATCH).map(ifNoneMatch -> matches(ifNoneMatch, etag)).orElse(false)) {
+                        // Play drops the body of a 304, the cart is only there to satisfy the call type
+                        return Pair.create(responseHeader.withStatus(NOT_MODIFIED), cart.getCart());
+                    } else {
+                        return Pair.create(responseHeader, cart.getCart());
+                    }
+                }));
+    }
+
+    /**
+     * Asks the entities with at most {@code shopping-cart.batch-get.parallelism} asks
+     * in flight, a failed ask fails the lookup of its cart only.
+     */
+    @Override
+    public ServiceCall<PSequence<String>, PSequence<ShoppingCartLookup>> getBatch() {
+        return ids -> {
+            if (ids.size() > batchGetMaxIds) {
+                throw new BadRequest("Can't get more than " + batchGetMaxIds + " shopping carts at once");
+            }
+            logger.debug("reading {} carts", ids.size());
+            return Source.from(ids)
+                    .mapAsync(batchGetParallelism, id ->
+                            readCold(id)
+                                    .thenApply(cart -> ShoppingCartLookup.found(cart.getCart()))
+                                    .exceptionally(ex -> {
+                                        logger.debug("failed to read cart [{}]", id, ex);
+                                        return lookupFailed(id, ex);
+                                    }))
+                    .runWith(Sink.seq(), materializer)
+                    .thenApply(TreePVector::from);
+        };
+    }
+
+    /**
+     * The failed lookup of a cart of a batch get, with the kind of error a get of the cart
+     * alone would have failed with.
+     */
+    static ShoppingCartLookup lookupFailed(String id, Throwable failure) {
+        Throwable ex = failure instanceof CompletionException ? failure.getCause() : failure;
+        if (ex instanceof TransportException) {
+            TransportException transportException = (TransportException) ex;
+            String detail = transportException.exceptionMessage().detail();
+            TransportErrorCode errorCode = transportException.errorCode();
+            if (errorCode.equals(TransportErrorCode.NotFound)) {
+                return ShoppingCartLookup.failed(id, ShoppingCartLookup.ErrorKind.NOT_FOUND, detail);
+            } else if (errorCode.equals(TransportErrorCode.BadRequest)) {
+                return ShoppingCartLookup.failed(id, ShoppingCartLookup.ErrorKind.BAD_REQUEST, detail);
+            } else if (errorCode.equals(TransportErrorCode.ServiceUnavailable)) {
+                return ShoppingCartLookup.failed(id, TIMEOUT.equals(transportException.exceptionMessage().name())
+                        ? ShoppingCartLookup.ErrorKind.TIMEOUT : ShoppingCartLookup.ErrorKind.OVERLOADED, detail);
+            }
+        } else if (ex instanceof ShoppingCartException) {
+            return ShoppingCartLookup.failed(id, ShoppingCartLookup.ErrorKind.BAD_REQUEST, ex.getMessage());
+        } else if (AdaptiveConcurrencyLimiter.isTimeout(ex)) {
+            return ShoppingCartLookup.failed(id, ShoppingCartLookup.ErrorKind.TIMEOUT, "The shopping cart didn't reply in time, retry later");
+        }
+        return ShoppingCartLookup.failed(id, ShoppingCartLookup.ErrorKind.INTERNAL, "Error reading shopping cart");
+    }
+
+    /**
+     * Starts from a read of the cart merged with the changes published by the entity,
+     * dropping anything not newer than the last cart sent, since the reads and the
+     * changes race each other.
+     * <p>
+     * The subscription to the changes is registered asynchronously once the stream runs,
+     * so a change published meanwhile, or lost by the at most once PubSub, is never
+     * received. The cart is read again after {@code shopping-cart.stream.resync-after}
+     * and then every {@code resync-interval}, which catches up with the lost changes,
+     * the checkout included. A cart that has never been updated fails the call with a
+     * 404.
+     */
+    @Override
+    public ServiceCall<NotUsed, Source<ShoppingCart, ?>> stream(String id) {
+        return request -> read(id).thenApply(initial -> {
+            if (initial.getVersion() == 0 && initial.getCart().getItems().isEmpty()) {
+                throw new NotFound("Couldn't find a shopping cart for '" + id + "'");
+            }
+            Source<VersionedCart, NotUsed> updates = changes.subscribe(id)
+                    .map(state -> responses.get(id, state, cart -> convertShoppingCart(id, cart)));
+            Source<VersionedCart, NotUsed> resyncs = Source.tick(streamResyncAfter, streamResyncInterval, NotUsed.getInstance())
+                    .mapAsync(1, tick -> resync(id)
+                            .thenApply(Optional::of)
+                            .exceptionally(ex -> {
+                                logger.debug("failed to read cart [{}] again for its stream", id, ex);
+                                return Optional.empty();
+                            }))
+                    .mapConcat(cart -> cart.isPresent() ? Collections.singletonList(cart.get()) : Collections.<VersionedCart>emptyList())
+                    .mapMaterializedValue(cancellable -> NotUsed.getInstance());
+            Source<ShoppingCart, NotUsed> carts = Source.single(initial)
+                    .concat(updates.merge(resyncs))
+                    .<VersionedCart>statefulMapConcat(() -> {
+                        long[] lastVersion = {-1};
+                        return cart -> {
+                            if (cart.getVersion() <= lastVersion[0]) {
+                                return Collections.emptyList();
+                            }
+                            lastVersion[0] = cart.getVersion();
+                            return Collections.singletonList(cart);
+                        };
+                    })
+                    .conflate((older, newer) -> newer)
+                    .takeWhile(cart -> !cart.getCart().isCheckedOut(), true)
+                    .map(VersionedCart::getCart);
+            return carts;
+        });
     }
 
     @Override
     public ServiceCall<NotUsed, ShoppingCartReportView> getReport(String id) {
-        return request ->
-                reportRepository.findById(id).thenApply(report -> {
-                    if (report != null)
-                        return new ShoppingCartReportView(id, report.getCreationDate(), report.getCheckoutDate());
-                    else
-                        throw new NotFound("Couldn't find a shopping cart report for '" + id + "'");
-                });
+        return request -> {
+            if (!readSideLag.isReady()) {
+                metrics.rejected("Reports catching up");
+                throw new TransportException(TransportErrorCode.ServiceUnavailable,
+                        new ExceptionMessage("ServiceUnavailable", "The shopping cart reports are catching up, retry later"));
+            }
+            return reportRepository.findView(id).thenApply(report ->
+                    report.orElseThrow(() -> new NotFound("Couldn't find a shopping cart report for '" + id + "'")));
+        };
     }
 
     @Override
     public ServiceCall<ShoppingCartItem, Done> updateItem(String id) {
 
-        logger.info("updating cart [" + id + "]");
-        return item ->
+        logger.debug("updating cart [{}]", id);
+        return item -> {
+            if (isThrottled(id)) {
+                // merged updates don't get a counted ask of their own, count them here
+                hotCarts.offer(id);
+                return convertErrors(hotCartMerger.get().submit(id, item));
+            } else {
+                return convertErrors(
+                        write(id, ShoppingCartMetrics.UPDATE_ITEM, new ShoppingCartCommand.UpdateItem(item.getProductId(), item.getQuantity()))
+                );
+            }
+        };
+    }
+
+    private boolean isThrottled(String id) {
+        return hotCartMerger.isPresent() && hotCarts.guaranteedCount(id) >= hotCartThreshold;
+    }
+
+    @Override
+    public ServiceCall<PSequence<ShoppingCartItem>, Done> updateItems(String id) {
+
+        logger.debug("updating items of cart [{}]", id);
+        return items ->
                 convertErrors(
-                        entityRef(id)
-                                .ask(new ShoppingCartCommand.UpdateItem(item.getProductId(), item.getQuantity()))
+                        write(id, ShoppingCartMetrics.UPDATE_ITEMS, new ShoppingCartCommand.UpdateItems(items))
+                );
+    }
+
+    /**
+     * Updates are grouped up to {@code shopping-cart.ingest.max-batch} items or
+     * {@code max-wait}, coalesced, and each group is persisted with one
+     * {@link ShoppingCartCommand.UpdateItems} command. The next group is only pulled once
+     * the previous one is persisted, which backpressures the client. The first rejected
+     * group fails the call, the groups before it are persisted.
+     */
+    @Override
+    public ServiceCall<Source<ShoppingCartItem, NotUsed>, Done> ingest(String id) {
+
+        logger.debug("ingesting items of cart [{}]", id);
+        return items ->
+                convertErrors(
+                        items.groupedWithin(ingestMaxBatch, ingestMaxWait)
+                                .map(ItemUpdates::coalesce)
+                                .mapAsync(1, batch -> write(id, ShoppingCartMetrics.UPDATE_ITEMS, new ShoppingCartCommand.UpdateItems(batch)))
+                                .runWith(Sink.ignore(), materializer)
                 );
     }
 
@@ -85,28 +510,74 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
     public ServiceCall<NotUsed, Done> checkout(String id) {
         return request ->
                 convertErrors(
-                        entityRef(id)
-                                .ask(ShoppingCartCommand.Checkout.INSTANCE)
+                        write(id, ShoppingCartMetrics.CHECKOUT, ShoppingCartCommand.Checkout.INSTANCE)
                 );
     }
 
+    @Override
+    public ServiceCall<NotUsed, ShoppingCartMetricsView> metrics() {
+        return request -> CompletableFuture.completedFuture(metrics.snapshot());
+    }
+
+    @Override
+    public ServiceCall<NotUsed, PSequence<HotCartView>> hotCarts() {
+        return request -> {
+            PSequence<HotCartView> views = TreePVector.empty();
+            for (HeavyHitters.Counter counter : hotCarts.top(hotCartsTop)) {
+                views = views.plus(new HotCartView(counter.key, counter.count, counter.error, isThrottled(counter.key)));
+            }
+            return CompletableFuture.completedFuture(views);
+        };
+    }
+
+    @Override
+    public ServiceCall<NotUsed, PSequence<ReadSideLagView>> readSideLag() {
+        return request -> CompletableFuture.completedFuture(readSideLag.lags());
+    }
+
     private <T> CompletionStage<T> convertErrors(CompletionStage<T> future) {
-        return future.exceptionally(ex -> {
+        return future.exceptionally(failure -> {
+            // failures are wrapped once they went through a dependent stage
+            Throwable ex = failure instanceof CompletionException ? failure.getCause() : failure;
             if (ex instanceof ShoppingCartException) {
+                metrics.rejected(ex.getMessage());
                 throw new BadRequest(ex.getMessage());
             }
+            else if (ex instanceof TransportException) {
+                throw (TransportException) ex;
+            }
             else {
+                metrics.rejected("Error updating shopping cart");
                 throw new BadRequest("Error updating shopping cart");
             }
         });
     }
 
-    private ShoppingCart convertShoppingCart(String id, ShoppingCartState cart) {
-        List<ShoppingCartItem> items = new ArrayList<>();
-        for (Map.Entry<String, Integer> item : cart.getItems().entrySet()) {
-            items.add(new ShoppingCartItem(item.getKey(), item.getValue()));
+    /**
+     * The ETag of a cart, the versions of projected carts are prefixed so that they never
+     * match the versions of the entity.
+     */
+    static String etag(VersionedCart cart) {
+        return (cart.isProjected() ? "\"p" : "\"") + cart.getVersion() + "\"";
+    }
+
+    /**
+     * Whether an If-None-Match header, a list of entity tags or *, matches the given ETag.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
         }
-        return new ShoppingCart(id, items, cart.isCheckedOut());
+        return false;
+    }
+
+    private ShoppingCart convertShoppingCart(String id, ShoppingCartState cart) {
+        List<ShoppingCartItem> items = new ArrayList<>(cart.getItems().size());
+        cart.getItems().forEach((productId, quantity) -> items.add(new ShoppingCartItem(productId, quantity)));
+        return new ShoppingCart(id, Collections.unmodifiableList(items), cart.isCheckedOut());
     }
 
 }
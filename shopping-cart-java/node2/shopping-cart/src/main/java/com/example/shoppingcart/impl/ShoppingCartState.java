@@ -5,40 +5,36 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Preconditions;
 import com.lightbend.lagom.serialization.CompressedJsonable;
 import lombok.Value;
-import org.pcollections.HashTreePMap;
-import org.pcollections.PMap;
-
-import java.util.Map;
 
 /**
  * The state for the {@link ShoppingCartEntity} entity.
+ * <p>
+ * The version counts the events applied to the cart, so it changes whenever the cart
+ * does and lets readers tell whether a cart changed without comparing its items. States
+ * restored from snapshots taken before the version existed start counting from zero.
  */
 @SuppressWarnings("serial")
 @Value
 @JsonDeserialize
 public final class ShoppingCartState implements CompressedJsonable {
-    public final PMap<String, Integer> items;
+    public final CartItems items;
     public final boolean checkedOut;
+    public final long version;
 
     @JsonCreator
-    ShoppingCartState(PMap<String, Integer> items, boolean checkedOut) {
+    ShoppingCartState(CartItems items, boolean checkedOut, long version) {
         this.items = Preconditions.checkNotNull(items, "items");
         this.checkedOut = checkedOut;
+        this.version = version;
     }
 
     public ShoppingCartState updateItem(String productId, int quantity) {
-        PMap<String, Integer> newItems;
-        if (quantity == 0) {
-            newItems = items.minus(productId);
-        } else {
-            newItems = items.plus(productId, quantity);
-        }
-        return new ShoppingCartState(newItems, checkedOut);
+        return new ShoppingCartState(items.updated(productId, quantity), checkedOut, version + 1);
     }
 
     public ShoppingCartState checkout() {
-        return new ShoppingCartState(items, true);
+        return new ShoppingCartState(items, true, version + 1);
     }
 
-    public static final ShoppingCartState EMPTY = new ShoppingCartState(HashTreePMap.empty(), false);
+    public static final ShoppingCartState EMPTY = new ShoppingCartState(CartItems.EMPTY, false, 0);
 }
@@ -0,0 +1,18 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.ShoppingCart;
+import lombok.Value;
+
+/**
+ * A {@link ShoppingCart} response along with the version of the state it was built from.
+ * <p>
+ * A cart read from the cart contents projection is {@code projected}: its version counts
+ * the events projected, which the version of the entity state doesn't always match, so
+ * the two must never be compared.
+ */
+@Value
+class VersionedCart {
+    long version;
+    ShoppingCart cart;
+    boolean projected;
+}
@@ -0,0 +1,110 @@
+package com.example.shoppingcart.impl;
+
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Measures the heap held by live carts and the bytes allocated by an update, for
+ * {@link CartItems} and for the {@code HashTreePMap} it replaces. The product ids of
+ * each cart are new strings, the way they come out of deserialized events and commands.
+ * <p>
+ * Run with {@code sbt "shopping-cart/test:runMain com.example.shoppingcart.impl.CartItemsFootprint [carts] [items]"},
+ * on a HotSpot JVM with a heap large enough for the carts, e.g. {@code -Xmx4g}.
+ */
+public class CartItemsFootprint {
+
+    private static final int PRODUCTS = 1000;
+
+    public static void main(String[] args) {
+        int carts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int items = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // warm up both paths before measuring
+        retained(carts / 10, items, CartItemsFootprint::cartItems);
+        retained(carts / 10, items, CartItemsFootprint::pmap);
+
+        print("pmap     ", carts, retained(carts, items, CartItemsFootprint::pmap),
+                allocatedPerUpdate(items, CartItemsFootprint::pmap, (cart, productId) -> cart.plus(productId, 7)));
+        print("cartItems", carts, retained(carts, items, CartItemsFootprint::cartItems),
+                allocatedPerUpdate(items, CartItemsFootprint::cartItems, (cart, productId) -> cart.updated(productId, 7)));
+    }
+
+    private static PMap<String, Integer> pmap(String[] productIds) {
+        PMap<String, Integer> map = HashTreePMap.empty();
+        for (int i = 0; i < productIds.length; i++) {
+            map = map.plus(productIds[i], i + 1);
+        }
+        return map;
+    }
+
+    private static CartItems cartItems(String[] productIds) {
+        CartItems cartItems = CartItems.EMPTY;
+        for (int i = 0; i < productIds.length; i++) {
+            cartItems = cartItems.updated(productIds[i], i + 1);
+        }
+        return cartItems;
+    }
+
+    /**
+     * The heap used by the given number of carts, measured as the difference of the used
+     * heap after a full collection with and without them.
+     */
+    private static long retained(int carts, int items, Function<String[], ?> build) {
+        Random random = new Random(carts);
+        long before = usedAfterGc();
+        Object[] held = new Object[carts];
+        for (int i = 0; i < carts; i++) {
+            held[i] = build.apply(productIds(random, items));
+        }
+        long after = usedAfterGc();
+        if (held[carts - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return after - before - 16L - 4L * carts;
+    }
+
+    private static <T> long allocatedPerUpdate(int items, Function<String[], T> build, BiFunction<T, String, T> update) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Random random = new Random(items);
+        T cart = build.apply(productIds(random, items));
+        String productId = "product-" + PRODUCTS;
+        int updates = 1000000;
+        Object sink = null;
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < updates; i++) {
+            sink = update.apply(cart, productId);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+        if (sink == null) {
+            throw new IllegalStateException();
+        }
+        return allocated / updates;
+    }
+
+    private static String[] productIds(Random random, int items) {
+        String[] productIds = new String[items];
+        for (int i = 0; i < items; i++) {
+            productIds[i] = "product-" + random.nextInt(PRODUCTS);
+        }
+        return productIds;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String representation, int carts, long retained, long allocatedPerUpdate) {
+        System.out.printf("%s: carts=%d retained=%dMB perCart=%dB allocatedPerUpdate=%dB%n",
+                representation, carts, retained / (1024 * 1024), retained / carts, allocatedPerUpdate);
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.shoppingcart.impl;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventTagShardsTest {
+
+    @Test
+    public void acceptsUpToTenShards() {
+        assertEquals(10, EventTagShards.numShards(ConfigFactory.parseString("shopping-cart.event-tag-shards = 10")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsShardsWhoseTagsWouldMatchEachOther() {
+        EventTagShards.numShards(ConfigFactory.parseString("shopping-cart.event-tag-shards = 11"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsAnInjectedConfigDisagreeingWithTheTags() {
+        EventTagShards.verify(ConfigFactory.parseString("shopping-cart.event-tag-shards = " + (ShoppingCartEvent.NUM_SHARDS == 1 ? 2 : 1)));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeavyHittersTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final HeavyHitters hitters = new HeavyHitters(3, Duration.ofSeconds(10), clock::get);
+
+    @Test
+    public void shouldTrackTheMostFrequentKeys() {
+        offer("hot", 100);
+        offer("warm", 10);
+        for (int i = 0; i < 50; i++) {
+            hitters.offer("cold-" + i);
+        }
+
+        List<HeavyHitters.Counter> top = hitters.top(2);
+        assertEquals("hot", top.get(0).key);
+        assertEquals(100, top.get(0).count);
+        assertEquals(100, hitters.guaranteedCount("hot"));
+        assertEquals(2, top.size());
+    }
+
+    @Test
+    public void shouldBoundTheOverestimateOfNewKeys() {
+        offer("a", 5);
+        offer("b", 5);
+        offer("c", 5);
+        hitters.offer("d");
+
+        assertEquals(6, hitters.top(3).stream().filter(counter -> counter.key.equals("d")).findFirst().get().count);
+        assertEquals(1, hitters.guaranteedCount("d"));
+    }
+
+    @Test
+    public void shouldHalveTheCountsEveryWindow() {
+        offer("hot", 100);
+        offer("once", 1);
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+
+        assertEquals(50, hitters.guaranteedCount("hot"));
+        assertEquals(1, hitters.top(3).size());
+    }
+
+    private void offer(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            hitters.offer(key);
+        }
+    }
+}
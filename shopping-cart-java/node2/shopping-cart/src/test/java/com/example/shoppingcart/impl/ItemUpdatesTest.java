@@ -0,0 +1,59 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.ShoppingCartItem;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.Assert.assertThat;
+
+public class ItemUpdatesTest {
+
+    @Test
+    public void shouldKeepTheLastQuantityOfEachProduct() {
+        assertThat(ItemUpdates.coalesce(Arrays.asList(
+            new ShoppingCartItem("123", 1),
+            new ShoppingCartItem("456", 1),
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("123", 3)
+        )), contains(
+            new ShoppingCartItem("456", 1),
+            new ShoppingCartItem("123", 3)
+        ));
+    }
+
+    @Test
+    public void shouldKeepTheItemAddedBeforeARemoval() {
+        assertThat(ItemUpdates.coalesce(Arrays.asList(
+            new ShoppingCartItem("123", 1),
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("123", 0)
+        )), contains(
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("123", 0)
+        ));
+    }
+
+    @Test
+    public void shouldKeepARemovalOfAnItemNotAddedInTheSequence() {
+        assertThat(ItemUpdates.coalesce(Arrays.asList(
+            new ShoppingCartItem("123", 0),
+            new ShoppingCartItem("456", 1)
+        )), contains(
+            new ShoppingCartItem("123", 0),
+            new ShoppingCartItem("456", 1)
+        ));
+    }
+
+    @Test
+    public void shouldNotCoalesceInvalidUpdates() {
+        assertThat(ItemUpdates.coalesce(Arrays.asList(
+            new ShoppingCartItem("123", -1),
+            new ShoppingCartItem("123", 2)
+        )), contains(
+            new ShoppingCartItem("123", -1),
+            new ShoppingCartItem("123", 2)
+        ));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class JournalCompactionTest {
+
+    private final Instant now = Instant.now();
+
+    @Test
+    public void keepsTheFirstEventTheLastUpdateOfEachProductAndTheCheckout() {
+        List<ShoppingCartEvent> events = Arrays.asList(
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 1, now),
+                new ShoppingCartEvent.ItemUpdated("123", "def", 1, now),
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 2, now),
+                new ShoppingCartEvent.ItemUpdated("123", "def", 0, now),
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 3, now),
+                new ShoppingCartEvent.CheckedOut("123", now));
+
+        assertEquals(new TreeSet<>(Arrays.asList(0, 3, 4, 5)), JournalCompaction.eventsToKeep(events));
+    }
+
+    @Test
+    public void keptEventsGiveTheSameItems() {
+        List<ShoppingCartEvent> events = Arrays.asList(
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 1, now),
+                new ShoppingCartEvent.ItemUpdated("123", "def", 1, now),
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 0, now),
+                new ShoppingCartEvent.ItemUpdated("123", "ghi", 2, now),
+                new ShoppingCartEvent.CheckedOut("123", now));
+
+        ShoppingCartContents all = new ShoppingCartContents();
+        ShoppingCartContents compacted = new ShoppingCartContents();
+        for (int i = 0; i < events.size(); i++) {
+            apply(all, events.get(i));
+            if (JournalCompaction.eventsToKeep(events).contains(i)) {
+                apply(compacted, events.get(i));
+            }
+        }
+
+        assertEquals(all.toState().getItems(), compacted.toState().getItems());
+        assertEquals(all.toState().isCheckedOut(), compacted.toState().isCheckedOut());
+    }
+
+    @Test
+    public void keepsEverythingOfACompactedCart() {
+        List<ShoppingCartEvent> events = Arrays.asList(
+                new ShoppingCartEvent.ItemUpdated("123", "abc", 1, now),
+                new ShoppingCartEvent.CheckedOut("123", now));
+
+        assertEquals(2, JournalCompaction.eventsToKeep(events).size());
+        assertEquals(Collections.emptySet(), JournalCompaction.eventsToKeep(Collections.emptyList()));
+    }
+
+    private static void apply(ShoppingCartContents contents, ShoppingCartEvent event) {
+        if (event instanceof ShoppingCartEvent.ItemUpdated) {
+            contents.apply((ShoppingCartEvent.ItemUpdated) event, false);
+        } else {
+            contents.apply((ShoppingCartEvent.CheckedOut) event, false);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JournalWakeupsTest {
+
+    private final JournalWakeups wakeups = new JournalWakeups();
+
+    @Test
+    public void waitsForTheNextSignalOfTheTag() {
+        long seen = wakeups.generation("tag1");
+        CompletionStage<Long> next = wakeups.next("tag1", seen);
+        assertFalse(next.toCompletableFuture().isDone());
+
+        wakeups.signal("tag2");
+        assertFalse(next.toCompletableFuture().isDone());
+
+        wakeups.signal("tag1");
+        assertEquals(seen + 1, (long) Await.result(next));
+    }
+
+    @Test
+    public void signalsDuringAQueryAreNotLost() {
+        long seen = wakeups.generation("tag1");
+        // signalled while the query runs, before it waits
+        wakeups.signal("tag1");
+
+        CompletionStage<Long> next = wakeups.next("tag1", seen);
+        assertTrue(next.toCompletableFuture().isDone());
+        assertEquals(seen + 1, (long) Await.result(next));
+    }
+
+    @Test
+    public void waitersShareOneFuture() {
+        long seen = wakeups.generation("tag1");
+        assertSame(wakeups.next("tag1", seen), wakeups.next("tag1", seen));
+    }
+
+    @Test
+    public void signalAllWakesAllTags() {
+        CompletionStage<Long> tag1 = wakeups.next("tag1", wakeups.generation("tag1"));
+        CompletionStage<Long> tag2 = wakeups.next("tag2", wakeups.generation("tag2"));
+
+        wakeups.signalAll();
+
+        assertTrue(tag1.toCompletableFuture().isDone());
+        assertTrue(tag2.toCompletableFuture().isDone());
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReportRebuildTest {
+
+    private final Instant now = Instant.now();
+
+    @Test
+    public void reducesTheEventsOfACartLikeTheReportProcessor() {
+        Map<String, ReportRebuild.CartTimes> carts = new HashMap<>();
+        ReportRebuild.apply(carts, 1, new ShoppingCartEvent.ItemUpdated("123", "abc", 1, now));
+        ReportRebuild.apply(carts, 2, new ShoppingCartEvent.ItemUpdated("123", "abc", 2, now.plusSeconds(10)));
+        ReportRebuild.apply(carts, 3, new ShoppingCartEvent.ItemUpdated("456", "abc", 1, now.plusSeconds(20)));
+        ReportRebuild.apply(carts, 4, new ShoppingCartEvent.CheckedOut("123", now.plusSeconds(30)));
+
+        assertEquals(now, carts.get("123").creationDate);
+        assertEquals(now.plusSeconds(30), carts.get("123").checkoutDate);
+        assertEquals(now.plusSeconds(20), carts.get("456").creationDate);
+        assertNull(carts.get("456").checkoutDate);
+    }
+
+    @Test
+    public void mergesTheRangesWhateverTheirOrder() {
+        Map<String, ReportRebuild.CartTimes> first = new HashMap<>();
+        ReportRebuild.apply(first, 1, new ShoppingCartEvent.ItemUpdated("123", "abc", 1, now));
+        Map<String, ReportRebuild.CartTimes> second = new HashMap<>();
+        ReportRebuild.apply(second, 11, new ShoppingCartEvent.ItemUpdated("123", "def", 1, now.plusSeconds(10)));
+        ReportRebuild.apply(second, 12, new ShoppingCartEvent.CheckedOut("123", now.plusSeconds(30)));
+
+        ReportRebuild.CartTimes times = second.get("123").merge(first.get("123"));
+
+        assertEquals("creation date is the one of the first event", now, times.creationDate);
+        assertEquals(now.plusSeconds(30), times.checkoutDate);
+    }
+}
@@ -3,14 +3,22 @@ package com.example.shoppingcart.impl;
 import akka.Done;
 import akka.actor.ActorSystem;
 import akka.testkit.javadsl.TestKit;
+import com.example.shoppingcart.api.ShoppingCartItem;
 import com.example.shoppingcart.impl.ShoppingCartCommand.Checkout;
 import com.example.shoppingcart.impl.ShoppingCartCommand.Get;
 import com.example.shoppingcart.impl.ShoppingCartCommand.UpdateItem;
+import com.example.shoppingcart.impl.ShoppingCartCommand.UpdateItems;
 import com.example.shoppingcart.impl.ShoppingCartEvent.CheckedOut;
 import com.example.shoppingcart.impl.ShoppingCartEvent.ItemUpdated;
 import com.lightbend.lagom.javadsl.testkit.PersistentEntityTestDriver;
 import com.lightbend.lagom.javadsl.testkit.PersistentEntityTestDriver.Outcome;
 import org.junit.*;
+import org.pcollections.TreePVector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
@@ -18,6 +26,7 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class ShoppingCartEntityTest {
     private static ActorSystem system;
@@ -36,9 +45,17 @@ public class ShoppingCartEntityTest {
 
     private PersistentEntityTestDriver<ShoppingCartCommand, ShoppingCartEvent, ShoppingCartState> driver;
 
+    private final List<ShoppingCartState> published = new ArrayList<>();
+
     @Before
     public void setupDriver() {
-        driver = new PersistentEntityTestDriver<>(system, new ShoppingCartEntity(), ENTITY_ID);
+        CartChanges changes = new CartChanges(null) {
+            @Override
+            void publish(String cartId, ShoppingCartState state) {
+                published.add(state);
+            }
+        };
+        driver = new PersistentEntityTestDriver<>(system, new ShoppingCartEntity(new ShoppingCartMetrics(Duration.ofMinutes(1)), changes), ENTITY_ID);
     }
 
     @After
@@ -59,6 +76,7 @@ public class ShoppingCartEntityTest {
         assertEquals(itemUpdated.quantity, 2);
 
         assertThat(outcome.state(), equalTo(ShoppingCartState.EMPTY.updateItem("123", 2)));
+        assertEquals(1, outcome.state().getVersion());
     }
 
     @Test
@@ -74,19 +92,59 @@ public class ShoppingCartEntityTest {
         assertEquals(itemUpdated.productId, "123");
         assertEquals(itemUpdated.quantity, 0);
 
-        assertThat(outcome.state(), equalTo(ShoppingCartState.EMPTY));
+        assertThat(outcome.state(), equalTo(ShoppingCartState.EMPTY.updateItem("123", 2).updateItem("123", 0)));
+        assertTrue(outcome.state().getItems().isEmpty());
+        assertEquals(2, outcome.state().getVersion());
     }
 
     @Test
     public void shoppingCartShouldAllowUpdatingMultipleItems() {
-        assertThat(driver.run(new UpdateItem("123", 2)).state(),
-            equalTo(ShoppingCartState.EMPTY.updateItem("123", 2)));
-        assertThat(driver.run(new UpdateItem("456", 3)).state(),
-            equalTo(ShoppingCartState.EMPTY.updateItem("123", 2).updateItem("456", 3)));
-        assertThat(driver.run(new UpdateItem("123", 1)).state(),
-            equalTo(ShoppingCartState.EMPTY.updateItem("123", 1).updateItem("456", 3)));
-        assertThat(driver.run(new UpdateItem("456", 0)).state(),
-            equalTo(ShoppingCartState.EMPTY.updateItem("123", 1)));
+        ShoppingCartState expected = ShoppingCartState.EMPTY.updateItem("123", 2);
+        assertThat(driver.run(new UpdateItem("123", 2)).state(), equalTo(expected));
+        expected = expected.updateItem("456", 3);
+        assertThat(driver.run(new UpdateItem("456", 3)).state(), equalTo(expected));
+        expected = expected.updateItem("123", 1);
+        assertThat(driver.run(new UpdateItem("123", 1)).state(), equalTo(expected));
+        expected = expected.updateItem("456", 0);
+        assertThat(driver.run(new UpdateItem("456", 0)).state(), equalTo(expected));
+
+        assertThat(expected.getItems(), equalTo(ShoppingCartState.EMPTY.updateItem("123", 1).getItems()));
+        assertEquals(4, expected.getVersion());
+    }
+
+    @Test
+    public void shoppingCartShouldAllowUpdatingItemsInOneCommand() {
+        driver.run(new UpdateItem("789", 1));
+        Outcome<ShoppingCartEvent, ShoppingCartState> outcome = driver.run(new UpdateItems(TreePVector.from(Arrays.asList(
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("456", 3),
+            new ShoppingCartItem("123", 0),
+            new ShoppingCartItem("789", 0)
+        ))));
+
+        assertThat(outcome.getReplies(), contains(Done.getInstance()));
+
+        assertEquals(outcome.events().size(), 4);
+        ItemUpdated itemUpdated = (ItemUpdated) outcome.events().get(1);
+        assertEquals(itemUpdated.shoppingCartId, ENTITY_ID);
+        assertEquals(itemUpdated.productId, "456");
+        assertEquals(itemUpdated.quantity, 3);
+
+        assertThat(outcome.state().getItems(), equalTo(ShoppingCartState.EMPTY.updateItem("456", 3).getItems()));
+        assertEquals(5, outcome.state().getVersion());
+    }
+
+    @Test
+    public void shoppingCartShouldFailTheWholeBatchWhenOneItemIsInvalid() {
+        Outcome<ShoppingCartEvent, ShoppingCartState> outcome = driver.run(new UpdateItems(TreePVector.from(Arrays.asList(
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("456", 0)
+        ))));
+
+        assertThat(outcome.getReplies(), contains(instanceOf(ShoppingCartException.class)));
+        assertThat(outcome.events(), empty());
+        assertThat(outcome.state(), equalTo(ShoppingCartState.EMPTY));
+        assertEquals(0, outcome.state().getVersion());
     }
 
     @Test
@@ -101,6 +159,7 @@ public class ShoppingCartEntityTest {
         assertEquals(checkedOut.shoppingCartId, ENTITY_ID);
 
         assertThat(outcome.state(), equalTo(ShoppingCartState.EMPTY.updateItem("123", 2).checkout()));
+        assertEquals(2, outcome.state().getVersion());
     }
 
     @Test
@@ -112,6 +171,34 @@ public class ShoppingCartEntityTest {
         assertThat(outcome.events(), empty());
     }
 
+    @Test
+    public void shoppingCartVersionShouldCountTheAppliedEvents() {
+        driver.run(new UpdateItem("123", 2));
+        driver.run(new UpdateItems(TreePVector.from(Arrays.asList(
+            new ShoppingCartItem("456", 3),
+            new ShoppingCartItem("123", 0)
+        ))));
+        driver.run(new UpdateItem("789", -1));
+        Outcome<ShoppingCartEvent, ShoppingCartState> outcome = driver.run(Checkout.INSTANCE);
+
+        assertEquals(4, outcome.state().getVersion());
+    }
+
+    @Test
+    public void shoppingCartShouldPublishTheStateOnceTheEventsArePersisted() {
+        driver.run(new UpdateItems(TreePVector.from(Arrays.asList(
+            new ShoppingCartItem("123", 2),
+            new ShoppingCartItem("456", 3)
+        ))));
+        driver.run(new UpdateItem("789", -1));
+        driver.run(Checkout.INSTANCE);
+
+        assertThat(published, contains(
+            ShoppingCartState.EMPTY.updateItem("123", 2).updateItem("456", 3),
+            ShoppingCartState.EMPTY.updateItem("123", 2).updateItem("456", 3).checkout()));
+        assertEquals(3, published.get(1).getVersion());
+    }
+
     @Test
     public void shoppingCartShouldFailWhenRemovingAnItemThatIsntAdded() {
         Outcome<ShoppingCartEvent, ShoppingCartState> outcome = driver.run(new UpdateItem("123", 0));
@@ -137,6 +224,15 @@ public class ShoppingCartEntityTest {
         assertThat(outcome.events(), empty());
     }
 
+    @Test
+    public void shoppingCartShouldFailWhenUpdatingItemsOfACheckedOutCart() {
+        driver.run(new UpdateItem("123", 2), Checkout.INSTANCE);
+        Outcome<ShoppingCartEvent, ShoppingCartState> outcome = driver.run(new UpdateItems(TreePVector.singleton(new ShoppingCartItem("456", 2))));
+
+        assertThat(outcome.getReplies(), contains(instanceOf(ShoppingCartException.class)));
+        assertThat(outcome.events(), empty());
+    }
+
     @Test
     public void shoppingCartShouldFailWhenCheckingOutTwice() {
         driver.run(new UpdateItem("123", 2), Checkout.INSTANCE);
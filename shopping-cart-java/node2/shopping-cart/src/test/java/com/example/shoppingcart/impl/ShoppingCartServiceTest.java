@@ -0,0 +1,42 @@
+package com.example.shoppingcart.impl;
+
+import com.example.shoppingcart.api.ShoppingCartService;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.defaultSetup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShoppingCartServiceTest {
+
+    private static ServiceTest.TestServer testServer;
+
+    @BeforeClass
+    public static void beforeAll() {
+        testServer = ServiceTest.startServer(defaultSetup().withJdbc());
+    }
+
+    @AfterClass
+    public static void afterAll() {
+        if (testServer != null) testServer.stop();
+    }
+
+    @Test
+    public void rejectedCheckoutShouldReturnTheCartMessage() {
+        ShoppingCartService service = testServer.client(ShoppingCartService.class);
+        try {
+            Await.result(service.checkout(UUID.randomUUID().toString()).invoke());
+            fail("checkout of an empty cart should be rejected");
+        } catch (RuntimeException e) {
+            assertTrue("rejected with a 400", e.getCause() instanceof BadRequest);
+            assertEquals("Cannot checkout empty cart", ((BadRequest) e.getCause()).exceptionMessage().detail());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.shoppingcart.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void concurrentRequestsShareOneLoad() {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletionStage<String> first = flights.get("cart", () -> countLoad(load));
+        CompletionStage<String> second = flights.get("cart", () -> countLoad(load));
+
+        assertSame(first, second);
+        load.complete("state");
+
+        assertEquals("state", Await.result(second));
+        assertEquals(1, loads.get());
+        assertEquals(2, flights.requests());
+        assertEquals(1, flights.coalesced());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    public void completedLoadsAreNotReused() {
+        Await.result(flights.get("cart", () -> countLoad(CompletableFuture.completedFuture("first"))));
+
+        assertEquals("second", Await.result(flights.get("cart", () -> countLoad(CompletableFuture.completedFuture("second")))));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void requestsAfterForgetStartANewLoad() {
+        CompletableFuture<String> before = new CompletableFuture<>();
+        CompletionStage<String> first = flights.get("cart", () -> countLoad(before));
+        flights.forget("cart");
+        CompletionStage<String> second = flights.get("cart", () -> countLoad(CompletableFuture.completedFuture("after")));
+
+        assertEquals("after", Await.result(second));
+        before.complete("before");
+        assertEquals("before", Await.result(first));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void failedLoadsFailAllRequests() {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletionStage<String> first = flights.get("cart", () -> countLoad(load));
+        CompletionStage<String> second = flights.get("cart", () -> countLoad(load));
+        load.completeExceptionally(new ShoppingCartException("boom"));
+
+        assertTrue(first.toCompletableFuture().isCompletedExceptionally());
+        assertTrue(second.toCompletableFuture().isCompletedExceptionally());
+        assertEquals(0, flights.inFlight());
+    }
+
+    private CompletionStage<String> countLoad(CompletionStage<String> load) {
+        loads.incrementAndGet();
+        return load;
+    }
+}